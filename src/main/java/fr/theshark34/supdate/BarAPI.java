@@ -18,6 +18,7 @@
  */
 package fr.theshark34.supdate;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import fr.theshark34.supdate.files.DownloadTask;
@@ -44,19 +45,21 @@ public class BarAPI {
 
     /**
      * The number of bytes to download for the current session. 
-     * A atomic long is not necessary because the using of this field is not multi-threaded, {@link Updater#start()}.
+     * Atomic, because the download tasks add the size of their file once they know it.
      */
     private static AtomicLong numberOfTotalBytesToDownload = new AtomicLong();
 
     /**
      * The number of downloaded files.
+     * Atomic too, because each download task increments it from its own thread.
      */
-    private static int numberOfDownloadedFiles = 0;
+    private static AtomicInteger numberOfDownloadedFiles = new AtomicInteger();
 
     /**
      * The number of files to download.
+     * Atomic, because it grows while the files are checked and downloaded.
      */
-    private static int numberOfFileToDownload = 0;
+    private static AtomicInteger numberOfFileToDownload = new AtomicInteger();
 
     /**
      * Increments the number of downloaded bytes. Used only by {@link DownloadTask#run()}.
@@ -64,6 +67,17 @@ public class BarAPI {
     public static void incrementNumberOfTotalDownloadedBytes() {
     	numberOfTotalDownloadedBytes.incrementAndGet();
     }
+
+    /**
+     * Adds a chunk of bytes to the number of downloaded bytes. Used by
+     * {@link DownloadTask#run()} once per read buffer instead of once per byte.
+     *
+     * @param bytes
+     *            The number of bytes that were just downloaded
+     */
+    public static void addNumberOfTotalDownloadedBytes(long bytes) {
+    	numberOfTotalDownloadedBytes.addAndGet(bytes);
+    }
     
     /**
      * Sets the number of total bytes to download
@@ -74,6 +88,17 @@ public class BarAPI {
     public static void setNumberOfTotalBytesToDownload(long total) {
     	numberOfTotalBytesToDownload.set(total);
     }
+
+    /**
+     * Adds bytes to the number of total bytes to download, when the
+     * size of a file to download is known. Used by {@link DownloadTask}.
+     *
+     * @param bytes
+     *            The number of bytes to add
+     */
+    public static void addNumberOfTotalBytesToDownload(long bytes) {
+    	numberOfTotalBytesToDownload.addAndGet(bytes);
+    }
     
     /**
      * Sets the number of downloaded files
@@ -82,7 +107,14 @@ public class BarAPI {
      *            The new number of downloaded files
      */
     public static void setNumberOfDownloadedFiles(int numberOfDownloadedFiles) {
-    	BarAPI.numberOfDownloadedFiles = numberOfDownloadedFiles;
+    	BarAPI.numberOfDownloadedFiles.set(numberOfDownloadedFiles);
+    }
+
+    /**
+     * Increments the number of downloaded files. Used only by {@link DownloadTask#run()}.
+     */
+    public static void incrementNumberOfDownloadedFiles() {
+    	numberOfDownloadedFiles.incrementAndGet();
     }
 
     /**
@@ -92,7 +124,15 @@ public class BarAPI {
      *            The new number of file to download
      */
     public static void setNumberOfFileToDownload(int numberOfFileToDownload) {
-    	BarAPI.numberOfFileToDownload = numberOfFileToDownload;
+    	BarAPI.numberOfFileToDownload.set(numberOfFileToDownload);
+    }
+
+    /**
+     * Increments the number of files to download, when a checked file
+     * needs to be downloaded. Used by {@link Updater#start()}.
+     */
+    public static void incrementNumberOfFileToDownload() {
+    	numberOfFileToDownload.incrementAndGet();
     }
 
     /**
@@ -119,7 +159,7 @@ public class BarAPI {
      * @return The downloaded files
      */
     public static int getNumberOfDownloadedFiles() {
-    	return numberOfDownloadedFiles;
+    	return numberOfDownloadedFiles.get();
     }
 
     /**
@@ -128,7 +168,7 @@ public class BarAPI {
      * @return The files to download
      */
     public static int getNumberOfFileToDownload() {
-    	return numberOfFileToDownload;
+    	return numberOfFileToDownload.get();
     }
 
 }
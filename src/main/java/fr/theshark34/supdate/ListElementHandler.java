@@ -16,42 +16,32 @@
  * You should have received a copy of the GNU Lesser General Public License
  * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
  */
-package fr.theshark34.supdate.models;
+package fr.theshark34.supdate;
+
+import java.io.IOException;
 
 /**
- * The CheckCheckMethod Response
+ * The List Element Handler
  *
  * <p>
- *    This is the model of the 'Check Check Method' request response.
+ *    Receives the elements of a list response one by one, as soon
+ *    as they are parsed, when the list is streamed by the
+ *    ServerRequester.
  * </p>
  *
- * @version 3.0.0-BETA
+ * @version 3.1.0-BETA
  * @author TheShark34
  */
-public class SizeResponse {
-
-    /**
-     * The number of total bytes to download
-     */
-    private long size;
-
-    /**
-     * GetTotalBytes Response
-     *
-     * @param size
-     *            The number of total bytes to download
-     */
-    public SizeResponse(long size) {
-        this.size = size;
-    }
+public abstract class ListElementHandler<T> {
 
     /**
-     * Return the number of bytes to download
+     * Called for each element of the list, in the list order
      *
-     * @return The total bytes to download
+     * @param element
+     *            The parsed element
+     * @throws IOException
+     *            To stop reading the list
      */
-    public long getSize() {
-        return size;
-    }
+    public abstract void onElement(T element) throws IOException;
 
 }
@@ -0,0 +1,553 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * The Manifest Cache
+ *
+ * <p>
+ *    Keeps the last file list received from the server in the output
+ *    folder, with its ETag. On the next update the ETag is sent back
+ *    with the list request : if the list didn't change, the server
+ *    answers '304 Not Modified' with no body and the cached list is
+ *    used. A server supporting the 'supdate-delta' instance
+ *    manipulation (RFC 3229) can also answer '226 IM Used' with only
+ *    the files added, changed and removed since this ETag, which are
+ *    applied to the cached list :
+ * </p>
+ *
+ * <p>
+ *    {"added": [files...], "changed": [files...], "removed": ["path"...]}
+ * </p>
+ *
+ * <p>
+ *    The cache is written in a temporary file, synced to the disk and
+ *    renamed only when the whole list was received, so it is never
+ *    incomplete. A list without an ETag (even one made with a delta)
+ *    is never used for the next update.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class ManifestCache {
+
+    /**
+     * The name of the cache file, in the output folder
+     */
+    public static final String CACHE_FILE = Updater.STATE_FILE_PREFIX + "manifest";
+
+    /**
+     * The name of the temporary cache file, while it is written
+     */
+    public static final String TEMP_CACHE_FILE = CACHE_FILE + ".tmp";
+
+    /**
+     * The name of the delta instance manipulation, for the A-IM and
+     * IM headers
+     */
+    public static final String DELTA_ENCODING = "supdate-delta";
+
+    /**
+     * The content type of the lists with the changes applied
+     */
+    private static final String JSON_CONTENT_TYPE = "application/json";
+
+    /**
+     * The first line of the cache, followed by its format version
+     */
+    private static final String HEADER = "S-Update-Manifest 1";
+
+    /**
+     * The output folder
+     */
+    private File folder;
+
+    /**
+     * What identifies the list (its URL), a list cached for another
+     * one is ignored
+     */
+    private String key;
+
+    /**
+     * The stream saving the list while it is received
+     */
+    private RecordingInputStream recording;
+
+    /**
+     * The Manifest Cache
+     *
+     * @param folder
+     *            The output folder, where is the cache
+     * @param key
+     *            What identifies the list (its URL)
+     */
+    public ManifestCache(File folder, String key) {
+        this.folder = folder;
+        this.key = key;
+    }
+
+    /**
+     * Returns the ETag of the cached list, if there is a valid one
+     *
+     * @return The ETag, or null if there is no cached list
+     */
+    public String getETag() {
+        String[] header = readHeader();
+
+        return header != null ? header[0] : null;
+    }
+
+    /**
+     * Returns the content type of the cached list (JSON or binary,
+     * see {@link fr.theshark34.supdate.check.BinaryManifest})
+     *
+     * @return The content type, or null if there is no cached list
+     */
+    public String getContentType() {
+        String[] header = readHeader();
+
+        return header != null ? header[1] : null;
+    }
+
+    /**
+     * Reads the header of the cache
+     *
+     * @return The ETag and the content type, or null if there is no valid cache
+     */
+    private String[] readHeader() {
+        InputStream input = null;
+
+        try {
+            input = new BufferedInputStream(new FileInputStream(new File(folder, CACHE_FILE)));
+
+            if(!HEADER.equals(readLine(input)) || !key.equals(readLine(input)))
+                return null;
+
+            String eTag = readLine(input);
+            String contentType = readLine(input);
+
+            // An empty ETag is a list that can't be asked again
+            return eTag != null && eTag.length() > 0 && contentType != null ? new String[] { eTag, contentType } : null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            close(input);
+        }
+    }
+
+    /**
+     * Opens the cached list
+     *
+     * @return A stream reading the cached list
+     * @throws IOException
+     *            If it failed to read it
+     */
+    public InputStream open() throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(new File(folder, CACHE_FILE)));
+
+        // Skipping the header, the key, the ETag, and the content type
+        for(int i = 0; i < 4; i++)
+            if(readLine(input) == null) {
+                close(input);
+                throw new IOException("The manifest cache is incomplete");
+            }
+
+        return input;
+    }
+
+    /**
+     * Saves a list while it is received, call commit when it was
+     * completely read, or discard if it failed
+     *
+     * @param body
+     *            The body of the response
+     * @param eTag
+     *            The ETag of the list
+     * @param contentType
+     *            The content type of the list (can be null)
+     * @return A stream reading the body, to read instead of it
+     * @throws IOException
+     *            If it failed to create the temporary file
+     */
+    public InputStream record(InputStream body, String eTag, String contentType) throws IOException {
+        recording = new RecordingInputStream(body, create(eTag, contentType != null ? contentType : ""));
+
+        return recording;
+    }
+
+    /**
+     * Replaces the cached list by the one that was recorded
+     *
+     * @throws IOException
+     *            If it failed to write it
+     */
+    public void commit() throws IOException {
+        if(recording == null)
+            return;
+
+        RecordingInputStream stream = recording;
+        recording = null;
+
+        // Reading what is left after the list (the whole response needs to be saved)
+        byte[] buffer = new byte[4096];
+        while(!stream.ended && stream.read(buffer) != -1);
+
+        replace(stream.output);
+    }
+
+    /**
+     * Drops the list that was recorded, the cached list stays the same
+     */
+    public void discard() {
+        if(recording == null)
+            return;
+
+        discard(recording.output);
+        recording = null;
+    }
+
+    /**
+     * Deletes the cached list, the next update will download it again
+     */
+    public void invalidate() {
+        new File(folder, CACHE_FILE).delete();
+    }
+
+    /**
+     * Applies a delta to the cached list, the changed files replace
+     * the cached ones at the same place, the added ones are put at
+     * the end of the list
+     *
+     * @param delta
+     *            The delta
+     * @param eTag
+     *            The ETag of the list with the delta applied, if it
+     *            is null the list can be opened, but it will not be
+     *            used for the next update
+     * @throws JsonParseException
+     *            If the delta or the cached list isn't valid
+     * @throws IOException
+     *            If it failed to read or to write the cache
+     */
+    public void applyDelta(InputStream delta, String eTag) throws JsonParseException, IOException {
+        Map<String, JsonElement> changed = new LinkedHashMap<String, JsonElement>();
+        Set<String> removed = new HashSet<String>();
+
+        try {
+            // Reading the delta, it is small
+            JsonObject deltaObject = new JsonParser().parse(new InputStreamReader(delta, "UTF-8")).getAsJsonObject();
+
+            if(deltaObject.has("added"))
+                for(JsonElement element : deltaObject.getAsJsonArray("added"))
+                    changed.put(getPath(element), element);
+
+            if(deltaObject.has("changed"))
+                for(JsonElement element : deltaObject.getAsJsonArray("changed"))
+                    changed.put(getPath(element), element);
+
+            if(deltaObject.has("removed"))
+                for(JsonElement element : deltaObject.getAsJsonArray("removed"))
+                    removed.add(element.getAsString());
+        } catch (IllegalStateException e) {
+            throw new JsonParseException(e);
+        } catch (ClassCastException e) {
+            throw new JsonParseException(e);
+        } catch (UnsupportedOperationException e) {
+            throw new JsonParseException(e);
+        }
+
+        // Copying the cached list, file by file, with the changes
+        Gson gson = new Gson();
+        JsonReader reader = new JsonReader(new InputStreamReader(open(), "UTF-8"));
+        TempFileOutputStream output = null;
+
+        try {
+            output = create(eTag, JSON_CONTENT_TYPE);
+
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(output, "UTF-8"));
+            JsonParser parser = new JsonParser();
+
+            reader.beginArray();
+            writer.beginArray();
+
+            while(reader.hasNext()) {
+                JsonElement element = parser.parse(reader);
+                String path = getPath(element);
+
+                if(removed.contains(path))
+                    continue;
+
+                // Using the changed file instead of the cached one
+                JsonElement changedElement = changed.remove(path);
+                gson.toJson(changedElement != null ? changedElement : element, writer);
+            }
+
+            // Then adding the new files
+            for(JsonElement element : changed.values())
+                gson.toJson(element, writer);
+
+            reader.endArray();
+            writer.endArray();
+            writer.flush();
+        } catch (MalformedJsonException e) {
+            discard(output);
+
+            throw new JsonParseException(e);
+        } catch (IOException e) {
+            discard(output);
+
+            throw e;
+        } catch (RuntimeException e) {
+            // The cached list isn't a list of files
+            discard(output);
+
+            throw e instanceof JsonParseException ? (JsonParseException) e : new JsonParseException(e);
+        } finally {
+            reader.close();
+        }
+
+        replace(output);
+    }
+
+    /**
+     * Creates the temporary cache file, with its header
+     *
+     * @param eTag
+     *            The ETag of the list (can be null)
+     * @param contentType
+     *            The content type of the list
+     * @return A stream to write the list in
+     * @throws IOException
+     *            If it failed to create it
+     */
+    private TempFileOutputStream create(String eTag, String contentType) throws IOException {
+        folder.mkdirs();
+
+        TempFileOutputStream output = new TempFileOutputStream(new FileOutputStream(new File(folder, TEMP_CACHE_FILE)));
+        output.write((HEADER + "\n" + key + "\n" + (eTag != null ? eTag : "") + "\n" + contentType + "\n").getBytes("UTF-8"));
+
+        return output;
+    }
+
+    /**
+     * Replaces the cache file by the temporary one
+     *
+     * @param output
+     *            The stream that wrote the temporary file
+     * @throws IOException
+     *            If it failed to write or to rename it
+     */
+    private void replace(TempFileOutputStream output) throws IOException {
+        // Making sure it is on the disk before removing the old one
+        try {
+            output.sync();
+        } catch (IOException e) {
+            discard(output);
+            throw e;
+        }
+
+        output.close();
+
+        File temp = new File(folder, TEMP_CACHE_FILE);
+        File cache = new File(folder, CACHE_FILE);
+
+        // Replacing the old cache (renameTo doesn't replace files on Windows)
+        if(cache.exists() && !cache.delete())
+            throw new IOException("Unable to replace the manifest cache " + cache);
+
+        if(!temp.renameTo(cache))
+            throw new IOException("Unable to rename the manifest cache " + temp);
+    }
+
+    /**
+     * Closes and deletes the temporary cache file
+     *
+     * @param output
+     *            The stream that wrote it (can be null)
+     */
+    private void discard(OutputStream output) {
+        close(output);
+        new File(folder, TEMP_CACHE_FILE).delete();
+    }
+
+    /**
+     * Returns the path of a file of the list
+     *
+     * @param element
+     *            The file
+     * @return Its relative path
+     */
+    private static String getPath(JsonElement element) {
+        JsonElement path = element.getAsJsonObject().get("fileRelativePath");
+        if(path == null)
+            throw new JsonParseException("A file of the list has no path : " + element);
+
+        return path.getAsString();
+    }
+
+    /**
+     * Reads an UTF-8 line of the cache header
+     *
+     * @param input
+     *            The stream to read
+     * @return The line, or null if the end of the stream was reached
+     * @throws IOException
+     *            If it failed to read it
+     */
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int read;
+
+        while((read = input.read()) != '\n') {
+            if(read == -1)
+                return null;
+
+            line.write(read);
+        }
+
+        return line.toString("UTF-8");
+    }
+
+    /**
+     * Closes a stream, ignoring the errors
+     *
+     * @param stream
+     *            The stream to close (can be null)
+     */
+    private static void close(Closeable stream) {
+        if(stream != null)
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+    }
+
+    /**
+     * A stream writing everything read in the cache
+     */
+    private static class RecordingInputStream extends FilterInputStream {
+
+        /**
+         * The temporary cache file
+         */
+        private TempFileOutputStream output;
+
+        /**
+         * If the end of the stream was reached
+         */
+        private boolean ended;
+
+        public RecordingInputStream(InputStream input, TempFileOutputStream output) {
+            super(input);
+
+            this.output = output;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if(read != -1)
+                output.write(read);
+            else
+                ended = true;
+
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if(read > 0)
+                output.write(buffer, offset, read);
+            else if(read == -1)
+                ended = true;
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes need to be saved too
+            byte[] buffer = new byte[(int) Math.min(n, 4096)];
+            int read = read(buffer, 0, buffer.length);
+
+            return read == -1 ? 0 : read;
+        }
+
+    }
+
+    /**
+     * A buffered stream writing the temporary cache file, that can
+     * be synced to the disk
+     */
+    private static class TempFileOutputStream extends BufferedOutputStream {
+
+        /**
+         * The temporary cache file
+         */
+        private FileOutputStream file;
+
+        public TempFileOutputStream(FileOutputStream file) {
+            super(file);
+
+            this.file = file;
+        }
+
+        /**
+         * Writes the buffered bytes, and waits for them to be on the disk
+         *
+         * @throws IOException
+         *            If it failed to write them
+         */
+        public void sync() throws IOException {
+            flush();
+            file.getFD().sync();
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate;
+
+/**
+ * The Request Callback
+ *
+ * <p>
+ *    Receives the result of an asynchronous request (see
+ *    {@link ServerRequester#sendPostRequestAsync(String, Class, byte[], RequestCallback)}),
+ *    on the thread that sent it.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public abstract class RequestCallback<T> {
+
+    /**
+     * Called when the request succeeded
+     *
+     * @param response
+     *            The parsed response
+     */
+    public abstract void onSuccess(T response);
+
+    /**
+     * Called when the request failed
+     *
+     * @param error
+     *            The error, a BadServerResponseException if the
+     *            response couldn't be parsed, an IOException if the
+     *            request failed
+     */
+    public abstract void onFailure(Throwable error);
+
+}
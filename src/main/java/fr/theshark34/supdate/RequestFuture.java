@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import fr.theshark34.supdate.exception.BadServerResponseException;
+
+/**
+ * The Request Future
+ *
+ * <p>
+ *    The result of an asynchronous request. It is a normal Future,
+ *    and getResponse waits for it and throws the errors of the
+ *    request as they are, instead of an ExecutionException.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class RequestFuture<T> extends FutureTask<T> {
+
+    /**
+     * The callback receiving the result, can be null
+     */
+    private RequestCallback<T> callback;
+
+    /**
+     * The Request Future
+     *
+     * @param request
+     *            The task sending the request
+     * @param callback
+     *            The callback receiving the result (can be null)
+     */
+    public RequestFuture(Callable<T> request, RequestCallback<T> callback) {
+        super(request);
+
+        this.callback = callback;
+    }
+
+    @Override
+    protected void done() {
+        if(callback == null || isCancelled())
+            return;
+
+        T response;
+
+        try {
+            response = get();
+        } catch (ExecutionException e) {
+            callback.onFailure(e.getCause());
+            return;
+        } catch (InterruptedException e) {
+            // Can't happen, the request is done
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        callback.onSuccess(response);
+    }
+
+    /**
+     * Waits for the response
+     *
+     * @return The parsed response
+     * @throws BadServerResponseException
+     *            If the response couldn't be parsed
+     * @throws IOException
+     *            If the request failed, or if it was cancelled or interrupted
+     */
+    public T getResponse() throws BadServerResponseException, IOException {
+        try {
+            return get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if(cause instanceof BadServerResponseException)
+                throw (BadServerResponseException) cause;
+            if(cause instanceof IOException)
+                throw (IOException) cause;
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if(cause instanceof Error)
+                throw (Error) cause;
+
+            throw new IOException("The request failed", cause);
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("The request was cancelled");
+        } catch (InterruptedException e) {
+            // Keeping the interruption for the caller
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while waiting for the server");
+        }
+    }
+
+}
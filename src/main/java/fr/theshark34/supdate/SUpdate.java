@@ -20,17 +20,23 @@ package fr.theshark34.supdate;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import net.wytrem.wylog.BasicLogger;
 import net.wytrem.wylog.LoggerFactory;
 import fr.theshark34.supdate.application.Application;
 import fr.theshark34.supdate.application.ApplicationManager;
 import fr.theshark34.supdate.check.CheckMethod;
+import fr.theshark34.supdate.check.FileWatcher;
 import fr.theshark34.supdate.exception.BadServerResponseException;
 import fr.theshark34.supdate.exception.BadServerVersionException;
 import fr.theshark34.supdate.exception.ServerDisabledException;
 import fr.theshark34.supdate.exception.ServerMissingSomethingException;
 import fr.theshark34.supdate.files.FileManager;
+import fr.theshark34.supdate.http.HttpTransport;
+import fr.theshark34.supdate.http.PooledHttpTransport;
 
 /**
  * The S-Update object
@@ -106,6 +112,38 @@ public class SUpdate {
      */
     private CheckMethod checkMethod = Updater.DEFAULT_CHECK_METHOD;
 
+    /**
+     * The number of files checked at the same time
+     */
+    private int checkThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The check methods to use, in the order of preference, the
+     * first one on the server is used
+     */
+    private List<CheckMethod> preferredCheckMethods = new ArrayList<CheckMethod>();
+
+    /**
+     * If the files are all hashed, without using the hash index
+     */
+    private boolean fullCheck = false;
+
+    /**
+     * The watcher of the output folder, null if it isn't watched
+     */
+    private FileWatcher fileWatcher;
+
+    /**
+     * If the file list is cached in the output folder, to download
+     * only its changes
+     */
+    private boolean manifestCacheEnabled = true;
+
+    /**
+     * The transport sending the requests and downloading the files
+     */
+    private HttpTransport transport = new PooledHttpTransport();
+
     /**
      * The current application manager
      */
@@ -219,6 +257,148 @@ public class SUpdate {
         return this.checkMethod;
     }
 
+    /**
+     * Sets the check methods to use, in the order of preference : when
+     * the update starts, the first one installed on the server becomes
+     * the check method. Useful to use a faster check method (like the
+     * xxHash64 one) when the server has it, and MD5 else.
+     *
+     * @param checkMethods
+     *            The check methods, the preferred one first
+     */
+    public void setPreferredCheckMethods(CheckMethod... checkMethods) {
+        this.preferredCheckMethods = new ArrayList<CheckMethod>(Arrays.asList(checkMethods));
+    }
+
+    /**
+     * Returns the check methods to use, in the order of preference
+     *
+     * @return The preferred check methods, empty if only the check
+     *         method is used
+     */
+    public List<CheckMethod> getPreferredCheckMethods() {
+        return this.preferredCheckMethods;
+    }
+
+    /**
+     * Sets the number of files checked at the same time (by default,
+     * the number of processors). On a hard drive, a low number can be
+     * faster, the disk head moves less.
+     *
+     * @param checkThreads
+     *            The number of threads checking the files
+     */
+    public void setCheckThreads(int checkThreads) {
+        if(checkThreads < 1)
+            throw new IllegalArgumentException("checkThreads must be at least 1");
+
+        this.checkThreads = checkThreads;
+    }
+
+    /**
+     * Returns the number of files checked at the same time
+     *
+     * @return The number of threads checking the files
+     */
+    public int getCheckThreads() {
+        return this.checkThreads;
+    }
+
+    /**
+     * Force or not the hashing of all the files : the hash index (in
+     * the output folder) is not used to skip the unchanged files, it
+     * is just written again. Use it if the files could have been
+     * modified without changing their size and modification time.
+     *
+     * @param fullCheck
+     *            True to hash all the files
+     */
+    public void setFullCheck(boolean fullCheck) {
+        this.fullCheck = fullCheck;
+    }
+
+    /**
+     * Returns if all the files are hashed, without the hash index
+     *
+     * @return True if they are
+     */
+    public boolean isFullCheck() {
+        return this.fullCheck;
+    }
+
+    /**
+     * Sets the watcher of the output folder : if it is started, the
+     * next updates check only the files changed since the last one
+     * (and the new files), like new FileWatcher(outputFolder).start()
+     *
+     * @param fileWatcher
+     *            The file watcher, null to check all the files
+     */
+    public void setFileWatcher(FileWatcher fileWatcher) {
+        this.fileWatcher = fileWatcher;
+    }
+
+    /**
+     * Returns the watcher of the output folder
+     *
+     * @return The file watcher, or null if there is none
+     */
+    public FileWatcher getFileWatcher() {
+        return this.fileWatcher;
+    }
+
+    /**
+     * Enable or not the cache of the file list : the last list is kept
+     * in the output folder with its ETag, if the server gives one, and
+     * the next update downloads it only if it changed (or only its
+     * changes, if the server can send them)
+     *
+     * @param manifestCacheEnabled
+     *            True to cache the file list
+     */
+    public void setManifestCacheEnabled(boolean manifestCacheEnabled) {
+        this.manifestCacheEnabled = manifestCacheEnabled;
+    }
+
+    /**
+     * Returns if the file list is cached
+     *
+     * @return True if it is
+     */
+    public boolean isManifestCacheEnabled() {
+        return this.manifestCacheEnabled;
+    }
+
+    /**
+     * Sets the transport sending the requests and downloading the files
+     *
+     * @param transport
+     *            The new transport
+     */
+    public void setTransport(HttpTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Returns the transport sending the requests and downloading the files
+     *
+     * @return The transport
+     */
+    public HttpTransport getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Sets the maximum download speed (same as getFileManager()
+     * .setBandwidthLimit), it can be changed during the update
+     *
+     * @param bytesPerSecond
+     *            The maximum speed (in bytes per second), 0 for no limit
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        fileManager.setBandwidthLimit(bytesPerSecond);
+    }
+
     /**
      * Add an application to S-Update (same as getApplicationManager()
      * .addApplication)
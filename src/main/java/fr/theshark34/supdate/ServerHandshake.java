@@ -0,0 +1,276 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.google.gson.Gson;
+
+import fr.theshark34.supdate.exception.BadServerResponseException;
+import fr.theshark34.supdate.models.CheckResponse;
+import fr.theshark34.supdate.models.HandshakeRequest;
+import fr.theshark34.supdate.models.HandshakeResponse;
+import fr.theshark34.supdate.models.StateResponse;
+import fr.theshark34.supdate.models.VersionResponse;
+
+import static fr.theshark34.supdate.SUpdate.logger;
+
+/**
+ * The Server Handshake
+ *
+ * <p>
+ *    Asks the server everything needed before the update in one
+ *    round trip : if it is enabled, its version, and if it has the
+ *    check methods and the applications. The 'server/handshake'
+ *    request is tried first, if the server doesn't know it, the old
+ *    requests are all sent at the same time.
+ * </p>
+ *
+ * <p>
+ *    The answers are the same objects as the ones of the old
+ *    requests (StateResponse, VersionResponse, CheckResponse, or the
+ *    raw response String if it wasn't JSON), so they are verified
+ *    the same way.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class ServerHandshake {
+
+    /**
+     * The answer of the 'is-enabled' request
+     */
+    private Object state;
+
+    /**
+     * The answer of the 'version' request
+     */
+    private Object version;
+
+    /**
+     * The answer of the 'check checkmethod' request of each check method
+     */
+    private Map<String, Object> checkMethods = new LinkedHashMap<String, Object>();
+
+    /**
+     * The answer of the 'check application' request of each application
+     */
+    private Map<String, Object> applications = new LinkedHashMap<String, Object>();
+
+    /**
+     * Do the handshake with the server
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @param checkMethodNames
+     *            The names of the check methods to look for
+     * @param applicationNames
+     *            The names of the applications to look for
+     * @return The answers of the server
+     * @throws BadServerResponseException
+     *            If a response couldn't be parsed
+     * @throws IOException
+     *            If a request failed
+     */
+    public static ServerHandshake perform(SUpdate sUpdate, List<String> checkMethodNames, List<String> applicationNames) throws BadServerResponseException, IOException {
+        ServerHandshake handshake = new ServerHandshake();
+
+        // Trying the handshake request (an old server answers it with an error)
+        Object response;
+        try {
+            response = sUpdate.getServerRequester().sendPostRequest("server/handshake", HandshakeResponse.class, new Gson().toJson(new HandshakeRequest(checkMethodNames, applicationNames)).getBytes("UTF-8"));
+        } catch (IOException e) {
+            response = null;
+        }
+
+        if(response instanceof HandshakeResponse && ((HandshakeResponse) response).getVersion() != null) {
+            HandshakeResponse handshakeResponse = (HandshakeResponse) response;
+
+            handshake.state = new StateResponse(handshakeResponse.isEnabled());
+            handshake.version = new VersionResponse(handshakeResponse.getVersion());
+
+            for(String name : checkMethodNames)
+                handshake.checkMethods.put(name, new CheckResponse(isPresent(handshakeResponse.getCheckMethods(), name)));
+
+            for(String name : applicationNames)
+                handshake.applications.put(name, new CheckResponse(isPresent(handshakeResponse.getApplications(), name)));
+
+            return handshake;
+        }
+
+        logger.info("The server doesn't know the handshake request, sending the requests at the same time");
+
+        handshake.sendConcurrently(sUpdate, checkMethodNames, applicationNames);
+
+        return handshake;
+    }
+
+    /**
+     * Do the handshake with the server in the background
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @param checkMethodNames
+     *            The names of the check methods to look for
+     * @param applicationNames
+     *            The names of the applications to look for
+     * @return The future answers of the server
+     */
+    public static RequestFuture<ServerHandshake> performAsync(final SUpdate sUpdate, final List<String> checkMethodNames, final List<String> applicationNames) {
+        return sUpdate.getServerRequester().submit(new Callable<ServerHandshake>() {
+            @Override
+            public ServerHandshake call() throws BadServerResponseException, IOException {
+                return perform(sUpdate, checkMethodNames, applicationNames);
+            }
+        }, null);
+    }
+
+    /**
+     * Send the old requests, all at the same time
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @param checkMethodNames
+     *            The names of the check methods to look for
+     * @param applicationNames
+     *            The names of the applications to look for
+     * @throws BadServerResponseException
+     *            If a response couldn't be parsed
+     * @throws IOException
+     *            If a request failed
+     */
+    private void sendConcurrently(SUpdate sUpdate, List<String> checkMethodNames, List<String> applicationNames) throws BadServerResponseException, IOException {
+        List<RequestFuture<Object>> futures = new ArrayList<RequestFuture<Object>>();
+
+        try {
+            // Sending all the requests
+            RequestFuture<Object> stateFuture = request(sUpdate, futures, "server/is-enabled", StateResponse.class);
+            RequestFuture<Object> versionFuture = request(sUpdate, futures, "server/version", VersionResponse.class);
+
+            List<RequestFuture<Object>> checkMethodFutures = new ArrayList<RequestFuture<Object>>();
+            for(String name : checkMethodNames)
+                checkMethodFutures.add(request(sUpdate, futures, "server/check/checkmethod/" + name.replaceAll(" ", "%20"), CheckResponse.class));
+
+            List<RequestFuture<Object>> applicationFutures = new ArrayList<RequestFuture<Object>>();
+            for(String name : applicationNames)
+                applicationFutures.add(request(sUpdate, futures, "server/check/application/" + name.replaceAll(" ", "%20"), CheckResponse.class));
+
+            // Then waiting for their answers
+            state = stateFuture.getResponse();
+            version = versionFuture.getResponse();
+
+            for(int i = 0; i < checkMethodNames.size(); i++)
+                checkMethods.put(checkMethodNames.get(i), checkMethodFutures.get(i).getResponse());
+
+            for(int i = 0; i < applicationNames.size(); i++)
+                applications.put(applicationNames.get(i), applicationFutures.get(i).getResponse());
+        } finally {
+            // If a request failed, the others are useless
+            for(RequestFuture<Object> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    /**
+     * Sends a request in the background, keeping its raw response if
+     * it isn't JSON
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @param futures
+     *            The list where to add the request
+     * @param request
+     *            The relative URL of the request
+     * @param model
+     *            The model object for the JSON parsing
+     * @return The future response
+     */
+    private static RequestFuture<Object> request(final SUpdate sUpdate, List<RequestFuture<Object>> futures, final String request, final Class<?> model) {
+        RequestFuture<Object> future = sUpdate.getServerRequester().submit(new Callable<Object>() {
+            @Override
+            public Object call() throws IOException {
+                return sUpdate.getServerRequester().sendPostRequest(request, model);
+            }
+        }, null);
+
+        futures.add(future);
+
+        return future;
+    }
+
+    /**
+     * Returns if a name is marked present in a map of the handshake
+     *
+     * @param presence
+     *            The map (can be null)
+     * @param name
+     *            The name
+     * @return True if it is present
+     */
+    private static boolean isPresent(Map<String, Boolean> presence, String name) {
+        return presence != null && Boolean.TRUE.equals(presence.get(name));
+    }
+
+    /**
+     * Returns the answer of the 'is-enabled' request
+     *
+     * @return A StateResponse, or the raw response if it wasn't JSON
+     */
+    public Object getState() {
+        return state;
+    }
+
+    /**
+     * Returns the answer of the 'version' request
+     *
+     * @return A VersionResponse, or the raw response if it wasn't JSON
+     */
+    public Object getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the answer of the 'check checkmethod' request of a check method
+     *
+     * @param name
+     *            The name of the check method
+     * @return A CheckResponse, or the raw response if it wasn't JSON
+     */
+    public Object getCheckMethod(String name) {
+        return checkMethods.get(name);
+    }
+
+    /**
+     * Returns the answer of the 'check application' request of an application
+     *
+     * @param name
+     *            The name of the application
+     * @return A CheckResponse, or the raw response if it wasn't JSON
+     */
+    public Object getApplication(String name) {
+        return applications.get(name);
+    }
+
+}
@@ -2,14 +2,33 @@ package fr.theshark34.supdate;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.lang.reflect.Type;
-import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import fr.theshark34.supdate.check.BinaryManifest;
+import fr.theshark34.supdate.check.CheckMethod;
+import fr.theshark34.supdate.check.FileInfos;
+import fr.theshark34.supdate.exception.BadServerResponseException;
+import fr.theshark34.supdate.http.HttpRequest;
+import fr.theshark34.supdate.http.HttpResponse;
+
+import static fr.theshark34.supdate.SUpdate.logger;
 
 /**
  * The ServerRequester
@@ -34,6 +53,12 @@ public class ServerRequester {
      */
     private boolean rewrite;
 
+    /**
+     * The threads sending the asynchronous requests, created when
+     * the first one is sent
+     */
+    private ExecutorService executor;
+
     /**
      * The ServerRequester
      *
@@ -51,7 +76,7 @@ public class ServerRequester {
      *            The relative URL of the request
      */
     public void sendRequest(String request) throws IOException {
-        send(request, null, null, null, false);
+        send(request, null, null, null, false, null);
     }
 
     /**
@@ -63,7 +88,7 @@ public class ServerRequester {
      *            The model object for the JSON parsing
      */
     public Object sendRequest(String request, Class<?> model) throws IOException {
-        return send(request, model, null, null, false);
+        return send(request, model, null, null, false, null);
     }
 
     /**
@@ -75,7 +100,7 @@ public class ServerRequester {
      *            The type of the model object for the JSON parsing
      */
     public Object sendRequest(String request, Type type) throws IOException {
-        return send(request, null, type, null, false);
+        return send(request, null, type, null, false, null);
     }
 
     /**
@@ -85,7 +110,7 @@ public class ServerRequester {
      *            The relative URL of the request
      */
     public void sendPostRequest(String request) throws IOException {
-        send(request, null, null, null, true);
+        send(request, null, null, null, true, null);
     }
 
     /**
@@ -97,7 +122,7 @@ public class ServerRequester {
      *            The model object for the JSON parsing
      */
     public Object sendPostRequest(String request, Class<?> model) throws IOException {
-        return send(request, model, null, null, true);
+        return send(request, model, null, null, true, null);
     }
 
     /**
@@ -109,7 +134,7 @@ public class ServerRequester {
      *            The type of the model object for the JSON parsing
      */
     public Object sendPostRequest(String request, Type type) throws IOException {
-        return send(request, null, type, null, true);
+        return send(request, null, type, null, true, null);
     }
 
     /**
@@ -123,7 +148,7 @@ public class ServerRequester {
      *            The post data to send
      */
     public Object sendPostRequest(String request, Class<?> model, byte[] postData) throws IOException {
-        return send(request, model, null, postData, true);
+        return send(request, model, null, postData, true, null);
     }
 
     /**
@@ -137,58 +162,494 @@ public class ServerRequester {
      *            The post data to send
      */
     public Object sendPostRequest(String request, Type type, byte[] postData) throws IOException {
-        return send(request, null, type, postData, true);
+        return send(request, null, type, postData, true, null);
+    }
+
+    /**
+     * Sends a post request to the server, and parse its response as a
+     * JSON, keeping it in a cache : if it didn't change since the last
+     * time, the cached response is used
+     *
+     * @param request
+     *            The relative URL of the request
+     * @param type
+     *            The type of the model object for the JSON parsing
+     * @param cache
+     *            The cache of the response
+     */
+    public Object sendPostRequest(String request, Type type, ManifestCache cache) throws IOException {
+        return send(request, null, type, null, true, cache);
+    }
+
+    /**
+     * Sends a post request to the server in the background, and parse
+     * its response as a JSON
+     *
+     * @param request
+     *            The relative URL of the request
+     * @param model
+     *            The model object for the JSON parsing
+     * @return The future response
+     */
+    public <T> RequestFuture<T> sendPostRequestAsync(String request, Class<T> model) {
+        return sendPostRequestAsync(request, model, null, null);
     }
 
-    private Object send(String request, Class<?> model, Type type, byte[] postData, boolean post) throws IOException {
-        // Creating the URL
-        URL requestUrl = new URL(sUpdate.getServerUrl() + (sUpdate.getServerUrl().endsWith("/") ? "" : "/") + (rewrite ? "index.php/" : "") + request);
+    /**
+     * Sends a post request to the server in the background, with post
+     * data, and parse its response as a JSON
+     *
+     * @param request
+     *            The relative URL of the request
+     * @param model
+     *            The model object for the JSON parsing
+     * @param postData
+     *            The post data to send (can be null)
+     * @param callback
+     *            The callback receiving the response (can be null)
+     * @return The future response, a BadServerResponseException is
+     *         thrown if it isn't a valid JSON of the model
+     */
+    public <T> RequestFuture<T> sendPostRequestAsync(final String request, final Class<T> model, final byte[] postData, RequestCallback<T> callback) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() throws BadServerResponseException, IOException {
+                Object response = send(request, model, null, postData, true, null);
 
-        // Creating the HTTP Connection
-        HttpURLConnection connection = (HttpURLConnection) requestUrl.openConnection();
+                // If the response is a string (so its the raw response because the JSON parse failed)
+                if(!model.isInstance(response))
+                    throw new BadServerResponseException(String.valueOf(response));
 
-        // Adding some user agents
-        connection.addRequestProperty("User-Agent", "Mozilla/5.0 AppleWebKit/537.36 (KHTML, like Gecko) Chrome/43.0.2357.124 Safari/537.36");
+                return model.cast(response);
+            }
+        }, callback);
+    }
 
-        // Setting post enabled if needed
-        if(post)
-            connection.setRequestMethod("POST");
+    /**
+     * Runs a task sending requests in the background
+     *
+     * @param task
+     *            The task
+     * @param callback
+     *            The callback receiving its result (can be null)
+     * @return The future result
+     */
+    public <T> RequestFuture<T> submit(Callable<T> task, RequestCallback<T> callback) {
+        RequestFuture<T> future = new RequestFuture<T>(task, callback);
+        getExecutor().execute(future);
 
-        // Writing the post data if needed
-        if(postData != null) {
-            connection.setDoOutput(true);
-            OutputStream output = connection.getOutputStream();
-            output.write(postData);
-        }
+        return future;
+    }
+
+    /**
+     * Returns the threads sending the asynchronous requests, they
+     * stop when they are unused for a minute
+     *
+     * @return The executor
+     */
+    private synchronized ExecutorService getExecutor() {
+        if(executor == null)
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "S-Update Request " + count.incrementAndGet());
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
 
-        // If we don't need to read the response (the model AND the type are null)
-        if(model == null && type == null)
-            // Returning nothing
-            return null;
+        return executor;
+    }
+
+    private Object send(String request, Class<?> model, Type type, byte[] postData, boolean post, ManifestCache cache) throws IOException {
+        // Creating the request
+        HttpRequest httpRequest = new HttpRequest(post ? "POST" : "GET", createUrl(request)).setBody(postData).acceptCompression();
+
+        // Giving the ETag of the cached response, if there is one
+        String eTag = cache != null ? cache.getETag() : null;
+        if(eTag != null)
+            httpRequest.setHeader("If-None-Match", eTag);
 
-        // Creating the buffered reader
-        BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+        // Sending the request with the post data if needed
+        HttpResponse httpResponse = sUpdate.getTransport().execute(httpRequest);
 
-        // Reading the response
-        String response = "";
-        String currentLine;
+        StringBuilder response = new StringBuilder();
+        InputStream body = null;
+
+        try {
+            // If we don't need to read the response (the model AND the type are null)
+            if(model == null && type == null)
+                // Returning nothing
+                return null;
 
-        while((currentLine = br.readLine()) != null)
-            response += currentLine;
+            // Creating the buffered reader
+            body = getBody(httpResponse, cache, eTag, false);
+            BufferedReader br = new BufferedReader(new InputStreamReader(body));
+
+            // Reading the response
+            String currentLine;
+
+            while((currentLine = br.readLine()) != null)
+                response.append(currentLine);
+        } catch (IOException e) {
+            if(cache != null)
+                cache.discard();
+
+            throw e;
+        } finally {
+            // Closing the response, to reuse its connection
+            httpResponse.close();
+            close(body);
+        }
 
         // Parsing the JSON
         Gson gson = new Gson();
         Object createdObject;
         try {
-            createdObject = gson.fromJson(response, model == null ? type : model);
+            createdObject = gson.fromJson(response.toString(), model == null ? type : model);
         } catch (JsonSyntaxException e) {
-            return response;
+            discardResponse(httpResponse, cache, eTag);
+
+            return response.toString();
         }
 
-        if(createdObject == null)
-            return response;
-        else
-            return createdObject;
+        if(createdObject == null) {
+            discardResponse(httpResponse, cache, eTag);
+
+            return response.toString();
+        }
+
+        // The response is valid, it can be cached
+        if(cache != null)
+            cache.commit();
+
+        return createdObject;
+    }
+
+    /**
+     * Sends a request to the server, and parse its response as a JSON
+     * list while it is received : each element is given to the handler
+     * as soon as it is parsed, without keeping the whole response
+     *
+     * @param request
+     *            The relative URL of the request
+     * @param elementType
+     *            The type of the list elements for the JSON parsing
+     * @param handler
+     *            The handler receiving the elements
+     * @throws BadServerResponseException
+     *            If the response isn't a JSON list
+     * @throws IOException
+     *            If it failed to do the request, or if the handler threw it
+     */
+    public <T> void streamPostRequest(String request, Type elementType, ListElementHandler<T> handler) throws BadServerResponseException, IOException {
+        streamPostRequest(request, elementType, handler, null);
+    }
+
+    /**
+     * Sends a request to the server, and parse its response as a JSON
+     * list while it is received, keeping it in a cache : if it didn't
+     * change since the last time, the cached list is read, and if the
+     * server can send only its changes, they are applied to the cached
+     * list
+     *
+     * @param request
+     *            The relative URL of the request
+     * @param elementType
+     *            The type of the list elements for the JSON parsing
+     * @param handler
+     *            The handler receiving the elements
+     * @param cache
+     *            The cache of the list (can be null)
+     * @throws BadServerResponseException
+     *            If the response isn't a JSON list
+     * @throws IOException
+     *            If it failed to do the request, or if the handler threw it
+     */
+    public <T> void streamPostRequest(String request, Type elementType, ListElementHandler<T> handler, ManifestCache cache) throws BadServerResponseException, IOException {
+        stream(request, elementType, null, handler, cache);
+    }
+
+    /**
+     * Sends a file list request to the server, and parse the list while
+     * it is received, like streamPostRequest. If the check method
+     * supports it, the list is asked in the binary format (see
+     * {@link BinaryManifest}), the server sends the JSON one if it
+     * doesn't know it.
+     *
+     * @param request
+     *            The relative URL of the request
+     * @param checkMethod
+     *            The check method of the list
+     * @param handler
+     *            The handler receiving the files
+     * @param cache
+     *            The cache of the list (can be null)
+     * @throws BadServerResponseException
+     *            If the response isn't a file list
+     * @throws IOException
+     *            If it failed to do the request, or if the handler threw it
+     */
+    public void streamFileList(String request, CheckMethod checkMethod, ListElementHandler<FileInfos> handler, ManifestCache cache) throws BadServerResponseException, IOException {
+        stream(request, checkMethod.getElementType(), checkMethod.getBinaryDigestLength() > 0 ? checkMethod : null, handler, cache);
+    }
+
+    /**
+     * Sends a list request to the server, and parse the list while it
+     * is received
+     *
+     * @param request
+     *            The relative URL of the request
+     * @param elementType
+     *            The type of the list elements for the JSON parsing
+     * @param binaryCheckMethod
+     *            The check method reading the binary lists, or null to
+     *            ask only JSON
+     * @param handler
+     *            The handler receiving the elements
+     * @param cache
+     *            The cache of the list (can be null)
+     * @throws BadServerResponseException
+     *            If the response isn't a list
+     * @throws IOException
+     *            If it failed to do the request, or if the handler threw it
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void stream(String request, Type elementType, CheckMethod binaryCheckMethod, ListElementHandler<T> handler, ManifestCache cache) throws BadServerResponseException, IOException {
+        // Creating the request
+        HttpRequest httpRequest = new HttpRequest("POST", createUrl(request)).acceptCompression();
+
+        // Asking the binary list, if it can be read
+        if(binaryCheckMethod != null)
+            httpRequest.setHeader("Accept", BinaryManifest.CONTENT_TYPE + ", application/json;q=0.9");
+
+        String eTag = cache != null ? cache.getETag() : null;
+        boolean cachedBinary = eTag != null && BinaryManifest.isBinary(cache.getContentType());
+
+        // A cached binary list is useless if it can't be read anymore
+        if(cachedBinary && binaryCheckMethod == null)
+            eTag = null;
+
+        // Giving the ETag of the cached list, if there is one, accepting only its changes if it's a JSON one
+        if(eTag != null)
+            httpRequest.setHeader("If-None-Match", eTag);
+        if(eTag != null && !cachedBinary)
+            httpRequest.setHeader("A-IM", ManifestCache.DELTA_ENCODING);
+
+        // Sending the request
+        HttpResponse httpResponse = sUpdate.getTransport().execute(httpRequest);
+        InputStream body = null;
+        boolean read = false;
+        boolean retry = false;
+
+        try {
+            try {
+                body = getBody(httpResponse, cache, eTag, true);
+            } catch (JsonParseException e) {
+                // The changes couldn't be applied to the cached list, downloading the whole list
+                logger.warning("Unable to apply the changes to the cached list, downloading it again. Error : ", e);
+                cache.invalidate();
+                retry = true;
+            }
+
+            if(!retry) {
+                // The content type of the list, the cached one if it didn't change
+                String contentType = eTag != null && httpResponse.getCode() == 304 ? cache.getContentType() : httpResponse.getHeader("Content-Type");
+
+                if(binaryCheckMethod != null && BinaryManifest.isBinary(contentType))
+                    BinaryManifest.read(body, binaryCheckMethod, (ListElementHandler<FileInfos>) handler);
+                else
+                    readList(body, elementType, handler);
+
+                read = true;
+
+                // The whole list was read, it can be cached
+                if(cache != null)
+                    cache.commit();
+            }
+        } catch (BadServerResponseException e) {
+            // If it was the cached list, it is broken, it will be downloaded again next time
+            if(cache != null && isCached(httpResponse, eTag, true))
+                cache.invalidate();
+
+            throw e;
+        } finally {
+            if(cache != null && !read)
+                cache.discard();
+
+            // Closing the response, to reuse its connection
+            httpResponse.close();
+            close(body);
+        }
+
+        // The cache is now empty, so the whole list is requested
+        if(retry)
+            stream(request, elementType, binaryCheckMethod, handler, cache);
+    }
+
+    /**
+     * Parse a JSON list while it is read, giving each element to
+     * the handler as soon as it is parsed
+     *
+     * @param body
+     *            The stream to read
+     * @param elementType
+     *            The type of the list elements for the JSON parsing
+     * @param handler
+     *            The handler receiving the elements
+     * @throws BadServerResponseException
+     *            If it isn't a JSON list
+     * @throws IOException
+     *            If it failed to read it, or if the handler threw it
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void readList(InputStream body, Type elementType, ListElementHandler<T> handler) throws BadServerResponseException, IOException {
+        // Reading the JSON directly from the stream
+        JsonReader reader = new JsonReader(new InputStreamReader(body, "UTF-8"));
+        reader.setLenient(true);
+
+        Gson gson = new Gson();
+
+        try {
+            // If the response isn't a list
+            if(reader.peek() != JsonToken.BEGIN_ARRAY)
+                throw new BadServerResponseException("expected a list but was " + reader.peek());
+
+            reader.beginArray();
+
+            // Giving each element to the handler as soon as it is parsed
+            while(reader.hasNext())
+                handler.onElement((T) gson.fromJson(reader, elementType));
+
+            reader.endArray();
+        } catch (MalformedJsonException e) {
+            throw new BadServerResponseException(e.getMessage());
+        } catch (JsonIOException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        } catch (JsonParseException e) {
+            throw new BadServerResponseException(e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new BadServerResponseException(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the body of a response to a cached request : the cached
+     * response if it didn't change, the cached list with the changes
+     * applied if the server sent only them, else the response body
+     * (saved in the cache while it is read, if the server gave its
+     * ETag)
+     *
+     * @param httpResponse
+     *            The response
+     * @param cache
+     *            The cache of the response (can be null)
+     * @param eTag
+     *            The ETag sent with the request (can be null)
+     * @param delta
+     *            If the changes since the cached list were accepted
+     * @return The body to read
+     * @throws JsonParseException
+     *            If the changes couldn't be applied to the cached list
+     * @throws IOException
+     *            If it failed to read the response or the cache
+     */
+    private InputStream getBody(HttpResponse httpResponse, ManifestCache cache, String eTag, boolean delta) throws JsonParseException, IOException {
+        if(isCached(httpResponse, eTag, delta)) {
+            // If the server sent only the changes since the cached response
+            if(httpResponse.getCode() != 304) {
+                logger.info("Applying the changes since the cached response");
+
+                // Without a new ETag, the changed list is not used for the next update
+                cache.applyDelta(httpResponse.getDecodedBody(), httpResponse.getHeader("ETag"));
+            } else
+                logger.info("The response didn't change since the last update, using the cached one");
+
+            return cache.open();
+        }
+
+        // Saving the response while it is read, if the server can tell if it changed
+        String newETag = httpResponse.getHeader("ETag");
+        if(cache != null && httpResponse.isSuccessful() && newETag != null)
+            return cache.record(httpResponse.getDecodedBody(), newETag, httpResponse.getHeader("Content-Type"));
+
+        return httpResponse.getDecodedBody();
+    }
+
+    /**
+     * Drops an invalid response : it isn't cached, and if it was the
+     * cached one, the cache is broken, it will be downloaded again
+     * next time
+     *
+     * @param httpResponse
+     *            The response
+     * @param cache
+     *            The cache of the response (can be null)
+     * @param eTag
+     *            The ETag sent with the request (can be null)
+     */
+    private static void discardResponse(HttpResponse httpResponse, ManifestCache cache, String eTag) {
+        if(cache == null)
+            return;
+
+        cache.discard();
+
+        if(isCached(httpResponse, eTag, false))
+            cache.invalidate();
+    }
+
+    /**
+     * Returns if the body of a response is read from the cache : the
+     * cached response if it didn't change, or the cached response
+     * with the changes sent by the server
+     *
+     * @param httpResponse
+     *            The response
+     * @param eTag
+     *            The ETag sent with the request (can be null)
+     * @param delta
+     *            If the changes since the cached list were accepted
+     * @return True if the body is the cached one
+     */
+    private static boolean isCached(HttpResponse httpResponse, String eTag, boolean delta) {
+        if(eTag == null)
+            return false;
+
+        if(httpResponse.getCode() == 304)
+            return true;
+
+        String im = httpResponse.getHeader("IM");
+        return delta && httpResponse.getCode() == 226 && im != null && im.contains(ManifestCache.DELTA_ENCODING);
+    }
+
+    /**
+     * Creates the URL of a request
+     *
+     * @param request
+     *            The relative URL of the request
+     * @return The full URL
+     * @throws MalformedURLException
+     *            If the server URL is invalid
+     */
+    private URL createUrl(String request) throws MalformedURLException {
+        return new URL(sUpdate.getServerUrl() + (sUpdate.getServerUrl().endsWith("/") ? "" : "/") + (rewrite ? "index.php/" : "") + request);
+    }
+
+    /**
+     * Closes a stream, ignoring the errors
+     *
+     * @param stream
+     *            The stream to close (can be null)
+     */
+    private static void close(InputStream stream) {
+        if(stream != null)
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
     }
 
     /**
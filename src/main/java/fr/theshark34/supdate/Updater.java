@@ -18,26 +18,27 @@
  */
 package fr.theshark34.supdate;
 
-import com.google.gson.Gson;
-import fr.theshark34.supdate.models.SizeResponse;
 import java.io.File;
 import java.io.IOException;
 import java.net.CookieHandler;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
+import java.lang.reflect.Type;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
 import fr.theshark34.supdate.application.Application;
 import fr.theshark34.supdate.application.event.ApplicationEvent;
 import fr.theshark34.supdate.application.event.FileCheckingEvent;
 import fr.theshark34.supdate.check.CheckMethod;
+import fr.theshark34.supdate.check.FileChecker;
 import fr.theshark34.supdate.check.FileInfos;
+import fr.theshark34.supdate.check.FileWatcher;
+import fr.theshark34.supdate.check.HashIndex;
 import fr.theshark34.supdate.check.md5.MD5CheckMethod;
 import fr.theshark34.supdate.exception.BadServerResponseException;
 import fr.theshark34.supdate.exception.BadServerVersionException;
@@ -67,6 +68,12 @@ public class Updater {
      */
     public static final String FILES_FOLDER = "files";
 
+    /**
+     * The start of the name of the files where S-Update keeps its
+     * state (like the hash index), in the output folder
+     */
+    public static final String STATE_FILE_PREFIX = ".supdate-";
+
     /**
      * The default check method
      */
@@ -77,6 +84,11 @@ public class Updater {
      */
     private SUpdate sUpdate;
 
+    /**
+     * The index of the digests of the local files
+     */
+    private HashIndex hashIndex;
+
     /**
      * The Updater
      *
@@ -107,95 +119,95 @@ public class Updater {
         // Saving the start time
         long startTime = System.currentTimeMillis();
 
+        logger.info("Connecting to the server... ");
+
+        // Asking the server everything needed in one time, in the background
+        RequestFuture<ServerHandshake> handshakeFuture = ServerHandshake.performAsync(sUpdate, getCheckMethodNames(), getServerRequiredApplicationNames());
+
+        // If the check method is already known, loading the digests of the files while waiting for the server
+        if(sUpdate.getPreferredCheckMethods().isEmpty())
+            loadHashIndex();
+
+        ServerHandshake handshake = handshakeFuture.getResponse();
+
         // Checking the server state
-        checkState();
+        checkState(handshake);
 
         // Checking the server version
-        checkVersion();
+        checkVersion(handshake);
 
         // Checking the check method and the applications
-        checkCheckMethodAndApplications();
+        checkCheckMethodAndApplications(handshake);
 
-        // Sending a request to update the stats
-        sUpdate.getServerRequester().sendPostRequest("stats/update");
+        // Sending a request to update the stats, without waiting for it
+        updateStats();
 
         // For each application
         for(Application app : sUpdate.getApplicationManager().getApplications())
             // Sending the onStart event
             app.onStart(new ApplicationEvent(sUpdate));
 
-        logger.info("Listing the files");
-
-        // Creating the files list
-        List<FileInfos> fileList = createFileList();
+        // Loading the digests of the files that didn't change, if it wasn't done for this check method
+        if(hashIndex == null || !hashIndex.getCheckMethodName().equals(sUpdate.getCheckMethod().getName()))
+            loadHashIndex();
 
-        // Creating the list of files to download
-        Map<URL, File> filesToDownload = new HashMap<URL, File>();
+        // Getting the files changed since the last update, if they are watched
+        FileWatcher watcher = sUpdate.getFileWatcher();
+        if(watcher != null && watcher.beginUpdate(sUpdate.isFullCheck()))
+            logger.info("%d files changed since the last update", watcher.getChangeCount());
 
-        // Creating the list of files to download with their relative path
-        List<String> filesPaths = new ArrayList<String>();
-
-        logger.info("Checking them");
+        // Setting the cookie manager
+        CookieManager cookieManager = new CookieManager(null, CookiePolicy.ACCEPT_ALL);
+        CookieHandler.setDefault(cookieManager);
 
-        // For each file infos
-        for(FileInfos fileInfos : fileList) {
-            // Getting their check result
-            boolean checkResult;
+        // The files to download are counted while they are checked
+        BarAPI.setNumberOfFileToDownload(0);
+        BarAPI.setNumberOfTotalBytesToDownload(0);
 
-            try {
-                checkResult = sUpdate.getCheckMethod().checkFile(sUpdate, fileInfos);
-            } catch (UnableToCheckException e) {
-                // If it failed printing the error
-                e.printStackTrace();
+        logger.info("Listing the files and checking them with %d threads", sUpdate.getCheckThreads());
 
-                // And stopping
-                return;
-            }
+        // Checking the files in parallel while listing them, and downloading the outdated ones as soon as they are known
+        CheckResults results = new CheckResults(new FileChecker(sUpdate, sUpdate.getCheckThreads()));
 
-            // Sending it to all the applications
-            for(Application app : sUpdate.getApplicationManager().getApplications())
-                checkResult = app.onFileChecking(new FileCheckingEvent(sUpdate, fileInfos.getFileRelativePath(), checkResult));
+        try {
+            listAndCheckFiles(results);
 
-            // If we need to download the file
-            if (checkResult) {
-                // Getting its infos
-                URL fileURL = new URL((sUpdate.getServerUrl() + (sUpdate.getServerUrl().endsWith("/") ? "" : "/") + FILES_FOLDER + "/" + fileInfos.getFileRelativePath()).replaceAll(" ", "%20"));
-                File localFile = new File(sUpdate.getOutputFolder(), fileInfos.getFileRelativePath());
+            // Waiting for the files still checked
+            results.take(true);
+        } catch (UnableToCheckException e) {
+            // If it failed printing the error
+            e.printStackTrace();
 
-                // Adding them to the filesToDownload map
-                filesToDownload.put(fileURL, localFile);
+            // Stopping the other checks, and waiting for the files already downloading
+            stopChecks(results);
 
-                // Adding it to the files paths list
-                filesPaths.add(fileInfos.getFileRelativePath());
-            }
+            // And stopping
+            return;
         }
 
-        // Setting the BarAPI 'numberOfFileToDownload' variable to the size of the filesToDownload list
-        BarAPI.setNumberOfFileToDownload(filesToDownload.size());
-
-        logger.info("%d files were checked, %s", fileList.size(), (filesToDownload.size() == 0 ? "nothing to download" : "need to download " + filesToDownload.size() + " of them."));
+        List<FileInfos> fileList = results.fileList;
+        List<FileInfos> filesToDownload = results.filesToDownload;
+        long bytesToDownload = results.bytesToDownload;
 
-        // Setting the cookie manager
-        CookieManager cookieManager = new CookieManager(null, CookiePolicy.ACCEPT_ALL);
-        CookieHandler.setDefault(cookieManager);
+        // Letting the check method know the result
+        sUpdate.getCheckMethod().onFilesChecked(sUpdate, filesToDownload);
 
-        // If we need to download files
-        if(filesPaths.size() > 0) {
-            // Adding to the BarAPI 'numberOfTotalBytesToDownload' variable, the size of the file to download
-            logger.info("Requesting bytes to download... ");
-            getBytesToDownload(filesPaths);
-            logger.info("Done: %d", BarAPI.getNumberOfTotalBytesToDownload());
+        logger.info("%d files were checked, %s", fileList.size(), (filesToDownload.size() == 0 ? "nothing to download" : "need to download " + filesToDownload.size() + " of them" + (bytesToDownload >= 0 ? " (" + bytesToDownload + " bytes)." : ".")));
 
-            logger.info("Starting download the files");
-        }
-        
-        // Downloading the files
-        for(Entry<URL, File> entry : filesToDownload.entrySet())
-            sUpdate.getFileManager().download(entry.getKey(), entry.getValue());
-        
         // Terminating
         sUpdate.getFileManager().stop();
 
+        // Saving the digests for the next update, with the ones of the downloaded files
+        try {
+            hashIndex.save();
+        } catch (IOException e) {
+            logger.warning("Unable to save the hash index. Error : ", e);
+        }
+
+        // The files are up to date, remembering it for the next update
+        if(watcher != null)
+            watcher.endUpdate(fileList, filesToDownload);
+
         // For each application
         for(Application app : sUpdate.getApplicationManager().getApplications())
             // Sending the onUpdateEnd event
@@ -205,6 +217,44 @@ public class Updater {
         printTotalTime(startTime);
     }
 
+    /**
+     * Returns the index of the digests of the local files, used by
+     * the check method while the files are checked
+     *
+     * @return The hash index, null if the update isn't started
+     */
+    public HashIndex getHashIndex() {
+        return this.hashIndex;
+    }
+
+    /**
+     * Returns if a file is one where S-Update keeps its state, in
+     * the output folder (they must not be deleted)
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @param file
+     *            The file to check
+     * @return True if it is, false if not
+     */
+    public static boolean isStateFile(SUpdate sUpdate, File file) {
+        return isStateFile(sUpdate.getOutputFolder(), file);
+    }
+
+    /**
+     * Returns if a file is one where S-Update keeps its state, in
+     * an output folder (they must not be deleted)
+     *
+     * @param outputFolder
+     *            The output folder
+     * @param file
+     *            The file to check
+     * @return True if it is, false if not
+     */
+    public static boolean isStateFile(File outputFolder, File file) {
+        return file.getName().startsWith(STATE_FILE_PREFIX) && outputFolder.getAbsoluteFile().equals(file.getAbsoluteFile().getParentFile());
+    }
+
     /**
      * Print infos about some things about... life... and weather...
      */
@@ -216,11 +266,96 @@ public class Updater {
     	logger.info("    Output Dir: %s", sUpdate.getOutputFolder().getAbsolutePath());
     }
 
-    private void checkState() throws BadServerResponseException, IOException, ServerDisabledException {
-    	logger.info("Connecting to the server... ");
+    /**
+     * Returns the names of the check methods to try, in the order of
+     * preference
+     *
+     * @return The check method names
+     */
+    private List<String> getCheckMethodNames() {
+        List<String> names = new ArrayList<String>();
+
+        for(CheckMethod checkMethod : getCheckMethods())
+            names.add(checkMethod.getName());
+
+        return names;
+    }
+
+    /**
+     * Returns the check methods to try, in the order of preference
+     *
+     * @return The preferred check methods, or the current one
+     */
+    private List<CheckMethod> getCheckMethods() {
+        List<CheckMethod> checkMethods = sUpdate.getPreferredCheckMethods();
+        if(checkMethods.isEmpty())
+            checkMethods = Collections.singletonList(sUpdate.getCheckMethod());
+
+        return checkMethods;
+    }
+
+    /**
+     * Returns the names of the applications that needs to be on the
+     * server
+     *
+     * @return The server-required application names
+     */
+    private List<String> getServerRequiredApplicationNames() {
+        List<String> names = new ArrayList<String>();
+
+        for(Application application : sUpdate.getApplicationManager().getApplications())
+            if(application.isServerRequired())
+                names.add(application.getName());
+
+        return names;
+    }
+
+    /**
+     * Sends the 'stats/update' request in the background, the update
+     * doesn't need its response
+     */
+    private void updateStats() {
+        sUpdate.getServerRequester().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                sUpdate.getServerRequester().sendPostRequest("stats/update");
+                return null;
+            }
+        }, new RequestCallback<Void>() {
+            @Override
+            public void onSuccess(Void response) {
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                logger.warning("Unable to update the stats", error);
+            }
+        });
+    }
+
+    /**
+     * Loads the hash index of the current check method, unless all
+     * the files are hashed
+     */
+    private void loadHashIndex() {
+        hashIndex = new HashIndex(sUpdate.getOutputFolder(), sUpdate.getCheckMethod().getName());
+        if(!sUpdate.isFullCheck())
+            hashIndex.load();
+    }
 
-        // Sending a get state request to check the server state
-        Object stateResponse = sUpdate.getServerRequester().sendPostRequest("server/is-enabled", StateResponse.class);
+    /**
+     * Checks the server state
+     *
+     * @param handshake
+     *            The answers of the server
+     * @throws BadServerResponseException
+     *            If the response wasn't JSON, or things like that
+     * @throws ServerDisabledException
+     *            If the server is disabled
+     */
+    private void checkState(ServerHandshake handshake) throws BadServerResponseException, ServerDisabledException {
+        // Getting the answer of the get state request
+        Object stateResponse = handshake.getState();
 
         // If the response is a string (so its the raw response because the JSON parse failed)
         if(stateResponse instanceof String)
@@ -241,16 +376,16 @@ public class Updater {
     /**
      * Checks the server version
      *
+     * @param handshake
+     *            The answers of the server
      * @throws BadServerResponseException
      *            If the response wasn't JSON, or things like that
      * @throws BadServerVersionException
      *            If the version isn't at least the min version
-     * @throws IOException
-     *            If it failed to do the request
      */
-    private void checkVersion() throws BadServerResponseException, BadServerVersionException, IOException {
-        // Sending a version request to check the server version and ping it
-        Object versionResponse = sUpdate.getServerRequester().sendPostRequest("server/version", VersionResponse.class);
+    private void checkVersion(ServerHandshake handshake) throws BadServerResponseException, BadServerVersionException {
+        // Getting the answer of the version request
+        Object versionResponse = handshake.getVersion();
 
         // If the response is a string (so its the raw response because the JSON parse failed)
         if(versionResponse instanceof String)
@@ -276,26 +411,51 @@ public class Updater {
     }
 
     /**
-     * Checks if the check method is installed on the server
+     * Checks if the check method is installed on the server (if
+     * there are preferred check methods, using the first one the
+     * server has)
+     *
+     * @param handshake
+     *            The answers of the server
      */
-    private void checkCheckMethodAndApplications() throws BadServerResponseException, ServerMissingSomethingException, IOException {
-        // Getting the check method name
-        String checkMethodName = sUpdate.getCheckMethod().getName();
-
-        // Sending a check check method request to the server
-        Object response = sUpdate.getServerRequester().sendPostRequest("server/check/checkmethod/" + checkMethodName.replaceAll(" ", "%20"), CheckResponse.class);
+    private void checkCheckMethodAndApplications(ServerHandshake handshake) throws BadServerResponseException, ServerMissingSomethingException {
+        // Getting the check methods to try, in the order of preference
+        List<CheckMethod> checkMethods = getCheckMethods();
+
+        Object response;
+        CheckMethod checkMethod = null;
+        String checkMethodNames = "";
+
+        // For each check method, until the server has one
+        for(CheckMethod candidate : checkMethods) {
+            // Getting the check method name
+            String checkMethodName = candidate.getName();
+
+            // Getting the answer of the check check method request
+            response = handshake.getCheckMethod(checkMethodName);
+
+            // If the response is a string (so its the raw response because the JSON parse failed)
+            if(response instanceof String)
+                // Throwing a BadServerResponse exception
+                throw new BadServerResponseException((String) response);
+
+            // If the check method is present on the server, using it
+            if(((CheckResponse) response).isPresent()) {
+                checkMethod = candidate;
+                break;
+            }
 
-        // If the response is a string (so its the raw response because the JSON parse failed)
-        if(response instanceof String)
-            // Throwing a BadServerResponse exception
-            throw new BadServerResponseException((String) response);
+            checkMethodNames += (checkMethodNames.length() > 0 ? ", " : "") + checkMethodName;
+        }
 
-        // If the check method is not present on the server
-        if(!((CheckResponse) response).isPresent())
+        // If no check method is present on the server
+        if(checkMethod == null)
             // Throwing a new ServerMissingSomething Exception
-            throw new ServerMissingSomethingException("the Check Method " + checkMethodName);
+            throw new ServerMissingSomethingException("the Check Method " + checkMethodNames);
+
+        sUpdate.setCheckMethod(checkMethod);
 
-        logger.info("CheckMethod : " + checkMethodName);
+        logger.info("CheckMethod : " + checkMethod.getName());
 
         String appsList = "";
         
@@ -306,8 +466,8 @@ public class Updater {
 
             // If it is server required
             if(sUpdate.getApplicationManager().getApplications().get(i).isServerRequired()) {
-                // Sending a check application request to the server
-                response = sUpdate.getServerRequester().sendPostRequest("server/check/application/" + applicationName.replaceAll(" ", "%20"), CheckResponse.class);
+                // Getting the answer of the check application request
+                response = handshake.getApplication(applicationName);
 
                 // If the response is a string (so its the raw response because the JSON parse failed)
                 if (response instanceof String)
@@ -334,38 +494,125 @@ public class Updater {
         	logger.info("No application");
     }
 
+    /**
+     * Create the file list and start checking the files. If the check
+     * method has an element type, the list is read while it is
+     * received, each file is checked as soon as it is parsed, and the
+     * known results are taken while the next files are received.
+     *
+     * @param results
+     *            The results of the checks, with the file checker to start
+     */
+    private void listAndCheckFiles(final CheckResults results) throws IOException, BadServerResponseException {
+        // Letting the check method prepare the checks
+        sUpdate.getCheckMethod().onFilesChecking(sUpdate);
+
+        Type elementType = sUpdate.getCheckMethod().getElementType();
+        String request = "server/list/" + sUpdate.getCheckMethod().getName().replaceAll(" ", "%20");
+
+        try {
+            // If the list can't be streamed, parsing it in one time
+            if(elementType == null) {
+                List<FileInfos> fileList = createFileList(request);
+
+                results.fileList.addAll(fileList);
+                results.checker.start(fileList);
+
+                return;
+            }
+
+            // Sending a list files request to the server, checking each file when it is received
+            sUpdate.getServerRequester().streamFileList(request, sUpdate.getCheckMethod(), new ListElementHandler<FileInfos>() {
+                @Override
+                public void onElement(FileInfos infos) throws IOException {
+                    results.fileList.add(infos);
+                    results.checker.submit(infos);
+
+                    // Downloading the files already checked
+                    try {
+                        results.take(false);
+                    } catch (UnableToCheckException e) {
+                        // Can't happen, the failed checks are taken after the list
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }, createManifestCache(request));
+        } catch (IOException e) {
+            stopChecks(results);
+            throw e;
+        } catch (BadServerResponseException e) {
+            stopChecks(results);
+            throw e;
+        }
+
+        results.checker.finish();
+    }
+
+    /**
+     * Stop the checks, and wait for the files already downloading
+     *
+     * @param results
+     *            The results of the checks
+     */
+    private void stopChecks(CheckResults results) {
+        results.checker.cancel();
+
+        // Waiting for the files already downloading
+        sUpdate.getFileManager().stop();
+    }
+
+    /**
+     * Create the cache of the file list, if it is enabled
+     *
+     * @param request
+     *            The file list request
+     * @return The cache, or null if it is disabled
+     */
+    private ManifestCache createManifestCache(String request) {
+        if(!sUpdate.isManifestCacheEnabled())
+            return null;
+
+        // A list cached for another server or check method is ignored
+        return new ManifestCache(sUpdate.getOutputFolder(), sUpdate.getServerUrl() + " " + request);
+    }
+
     /**
      * Create the file list
      *
+     * @param request
+     *            The file list request
      * @return The list of the files
      */
-    @SuppressWarnings("unchecked")
-	private List<FileInfos> createFileList() throws IOException, BadServerResponseException {
+    private List<FileInfos> createFileList(String request) throws IOException, BadServerResponseException {
         // Sending a list files request to the server
-        Object response = sUpdate.getServerRequester().sendPostRequest("server/list/" + sUpdate.getCheckMethod().getName().replaceAll(" ", "%20"), sUpdate.getCheckMethod().getListType());
+        Object response = sUpdate.getServerRequester().sendPostRequest(request, sUpdate.getCheckMethod().getListType(), createManifestCache(request));
 
         // If the response is a string (so its the raw response because the JSON parse failed)
         if(response instanceof String)
             // Throwing a BadServerResponse exception
             throw new BadServerResponseException((String) response);
 
-        return (List<FileInfos>) response;
+        return sUpdate.getCheckMethod().getFileList(sUpdate, response);
     }
 
-    private void getBytesToDownload(List<String> filesToDownload) throws IOException, BadServerResponseException {
-        // Getting GSON
-        Gson gson = new Gson();
+    /**
+     * Queue the download of a file, its size is counted in the BarAPI
+     * total as soon as it is known
+     *
+     * @param fileInfos
+     *            The infos of the file to download
+     */
+    private void download(FileInfos fileInfos) throws IOException {
+        URL fileURL = new URL((sUpdate.getServerUrl() + (sUpdate.getServerUrl().endsWith("/") ? "" : "/") + FILES_FOLDER + "/" + fileInfos.getFileRelativePath()).replaceAll(" ", "%20"));
+        File localFile = new File(sUpdate.getOutputFolder(), fileInfos.getFileRelativePath());
 
-        // Sending a get total bytes request to the server
-        Object response = sUpdate.getServerRequester().sendPostRequest("server/size", SizeResponse.class, gson.toJson(filesToDownload).replaceAll(" ", "%20").getBytes());
+        // The size is known if the server gave it in the file list, else it is counted with the response
+        long size = fileInfos.getSize();
 
-        // If the response is a string (so its the raw response because the JSON parse failed)
-        if(response instanceof String)
-            // Throwing a BadServerResponse exception
-            throw new BadServerResponseException((String) response);
+        BarAPI.incrementNumberOfFileToDownload();
 
-        // Setting it
-        BarAPI.setNumberOfTotalBytesToDownload(((SizeResponse) response).getSize());
+        // Verified with its infos, this can wait if the download queue is full
+        sUpdate.getFileManager().download(fileURL, localFile, fileInfos, size, 0);
     }
 
     /**
@@ -383,4 +630,89 @@ public class Updater {
         logger.info("Update finished, total time : " + strTime);
     }
 
+    /**
+     * The Check Results
+     *
+     * <p>
+     *    Takes the check results in the order of the file list, on the
+     *    updater thread, and downloads each outdated file as soon as
+     *    its result is taken.
+     * </p>
+     */
+    private class CheckResults {
+
+        /**
+         * The file checker
+         */
+        private final FileChecker checker;
+
+        /**
+         * The files of the server, in the order of the checker results
+         */
+        private final List<FileInfos> fileList = new ArrayList<FileInfos>();
+
+        /**
+         * The files to download
+         */
+        private final List<FileInfos> filesToDownload = new ArrayList<FileInfos>();
+
+        /**
+         * The total size of the files to download, from the file list (-1 if a size is missing)
+         */
+        private long bytesToDownload;
+
+        /**
+         * The index of the next result to take
+         */
+        private int next;
+
+        /**
+         * The Check Results
+         *
+         * @param checker
+         *            The file checker
+         */
+        private CheckResults(FileChecker checker) {
+            this.checker = checker;
+        }
+
+        /**
+         * Take the next check results, and download the outdated files
+         *
+         * @param wait
+         *            True to wait for all the results, false to take
+         *            only the results already known
+         * @throws UnableToCheckException
+         *            If a file couldn't be checked
+         * @throws IOException
+         *            If the URL of a file is invalid
+         */
+        private void take(boolean wait) throws UnableToCheckException, IOException {
+            while(next < fileList.size() && (wait || checker.isChecked(next))) {
+                FileInfos fileInfos = fileList.get(next);
+
+                // Getting its check result
+                boolean checkResult = checker.getResult(next++);
+
+                // Sending it to all the applications
+                for(Application app : sUpdate.getApplicationManager().getApplications())
+                    checkResult = app.onFileChecking(new FileCheckingEvent(sUpdate, fileInfos.getFileRelativePath(), checkResult));
+
+                // If we need to download the file
+                if(checkResult) {
+                    // Adding it to the filesToDownload list
+                    filesToDownload.add(fileInfos);
+
+                    // Counting its size, if the server gave it
+                    long size = fileInfos.getSize();
+                    bytesToDownload = size >= 0 && bytesToDownload >= 0 ? bytesToDownload + size : -1;
+
+                    // Downloading it right now, while the next files are checked
+                    download(fileInfos);
+                }
+            }
+        }
+
+    }
+
 }
@@ -38,12 +38,14 @@ import java.util.List;
 import com.google.gson.reflect.TypeToken;
 
 import fr.theshark34.supdate.SUpdate;
+import fr.theshark34.supdate.Updater;
 import fr.theshark34.supdate.application.Application;
 import fr.theshark34.supdate.application.event.ApplicationEvent;
 import fr.theshark34.supdate.application.event.FileCheckingEvent;
 import fr.theshark34.supdate.application.event.fileaction.FileActionEvent;
 import fr.theshark34.supdate.exception.BadServerResponseException;
 import fr.theshark34.supdate.exception.FileNoPermissionException;
+import fr.theshark34.supdate.files.PartialDownload;
 
 import static fr.theshark34.supdate.SUpdate.logger;
 
@@ -157,8 +159,8 @@ public class FileDeleter extends Application {
 
         // For each file
         for(File file : files)
-            // If it is not in the ignore list
-            if(!isOnIgnoreList(event.getSUpdate(), file))
+            // If it is not in the ignore list (a download state is kept if its file is, and the files of S-Update are always kept)
+            if(!isOnIgnoreList(event.getSUpdate(), file) && !isResumableDownload(event.getSUpdate(), file) && !Updater.isStateFile(event.getSUpdate(), file))
                 // Deleting it
                 try {
                     logger.info("[FileDeleter] Deleting file '%s'.", file.getAbsolutePath());
@@ -219,6 +221,29 @@ public class FileDeleter extends Application {
         return results;
     }*/
 
+    /**
+     * Checks if a file is the '.part' or the state file of an
+     * unfinished download of a file on the ignore list, to keep
+     * it for the next update
+     *
+     * @param file
+     *            The file to check
+     * @return True if it is, false if not
+     */
+    public boolean isResumableDownload(SUpdate sUpdate, File file) {
+        String path = file.getPath();
+
+        // Getting the file being downloaded
+        if(path.endsWith(PartialDownload.STATE_EXTENSION))
+            path = path.substring(0, path.length() - PartialDownload.STATE_EXTENSION.length());
+        else if(path.endsWith(PartialDownload.PART_EXTENSION))
+            path = path.substring(0, path.length() - PartialDownload.PART_EXTENSION.length());
+        else
+            return false;
+
+        return isOnIgnoreList(sUpdate, new File(path));
+    }
+
     /**
      * Checks if a file is on the ignore list
      *
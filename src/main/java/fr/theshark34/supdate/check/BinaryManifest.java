@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.theshark34.supdate.ListElementHandler;
+import fr.theshark34.supdate.exception.BadServerResponseException;
+import fr.theshark34.supdate.files.BlockSignature;
+
+/**
+ * The Binary Manifest
+ *
+ * <p>
+ *    A compact encoding of the file list, asked to the server with
+ *    the {@link #CONTENT_TYPE} Accept header when the check method
+ *    supports it (see {@link CheckMethod#getBinaryDigestLength()}).
+ *    The paths are sent only from where they differ from the previous
+ *    one, and the digests as raw bytes instead of hexadecimal. A
+ *    server that doesn't know it just sends the JSON list.
+ * </p>
+ *
+ * <pre>
+ * "SUPM", version (1 byte), digest length (1 byte), file count (varint)
+ * For each file :
+ *     length of the start of the previous path to keep (varint),
+ *     length of the rest of the path (varint), rest of the path (UTF-8),
+ *     flags (1 byte, 1 = has a block signature, 2 = has a size),
+ *     digest (raw bytes)
+ *     If it has a size :
+ *         file size (varint)
+ *     If it has a block signature :
+ *         file size (varint), block size (varint),
+ *         for each block : weak checksum (4 bytes), MD5 (16 bytes)
+ * </pre>
+ *
+ * <p>
+ *    The numbers are big-endian, the varints are unsigned LEB128 (7 bits
+ *    per byte, the lowest first, the highest bit set if another byte
+ *    follows).
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class BinaryManifest {
+
+    /**
+     * The content type of the binary file lists
+     */
+    public static final String CONTENT_TYPE = "application/x-supdate-manifest";
+
+    /**
+     * The first bytes of a binary file list
+     */
+    private static final byte[] MAGIC = { 'S', 'U', 'P', 'M' };
+
+    /**
+     * The version of the format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The flag of the files with a block signature
+     */
+    private static final int FLAG_BLOCKS = 1;
+
+    /**
+     * The flag of the files with a size
+     */
+    private static final int FLAG_SIZE = 2;
+
+    /**
+     * The length of the strong checksums of the blocks (MD5)
+     */
+    private static final int STRONG_LENGTH = 16;
+
+    /**
+     * The maximum length of a path, in bytes
+     */
+    private static final int MAX_PATH_LENGTH = 65536;
+
+    /**
+     * Returns if a response is a binary file list
+     *
+     * @param contentType
+     *            The content type of the response (can be null)
+     * @return True if it is
+     */
+    public static boolean isBinary(String contentType) {
+        return contentType != null && contentType.startsWith(CONTENT_TYPE);
+    }
+
+    /**
+     * Reads a binary file list, giving each file to the handler as
+     * soon as it is read
+     *
+     * @param input
+     *            The stream to read
+     * @param checkMethod
+     *            The check method creating the file infos
+     * @param handler
+     *            The handler receiving the files
+     * @throws BadServerResponseException
+     *            If it isn't a valid binary file list
+     * @throws IOException
+     *            If it failed to read it, or if the handler threw it
+     */
+    public static void read(InputStream input, CheckMethod checkMethod, ListElementHandler<FileInfos> handler) throws BadServerResponseException, IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(input));
+
+        try {
+            // Checking the header
+            byte[] magic = new byte[MAGIC.length];
+            data.readFully(magic);
+
+            if(!Arrays.equals(magic, MAGIC))
+                throw new BadServerResponseException("not a binary file list");
+
+            int version = data.readUnsignedByte();
+            if(version != VERSION)
+                throw new BadServerResponseException("unknown binary file list version " + version);
+
+            int digestLength = data.readUnsignedByte();
+            if(digestLength != checkMethod.getBinaryDigestLength())
+                throw new BadServerResponseException("the digests of the binary file list have " + digestLength + " bytes, " + checkMethod.getName() + " needs " + checkMethod.getBinaryDigestLength());
+
+            long count = readVarLong(data);
+
+            // The path of the previous file, its start is shared with the next one
+            byte[] path = new byte[256];
+            int pathLength = 0;
+
+            for(long i = 0; i < count; i++) {
+                int shared = readLength(data, pathLength);
+                int suffix = readLength(data, MAX_PATH_LENGTH - shared);
+
+                // Growing the path if needed, keeping its shared start
+                if(shared + suffix > path.length)
+                    path = Arrays.copyOf(path, Math.max(path.length * 2, shared + suffix));
+
+                data.readFully(path, shared, suffix);
+                pathLength = shared + suffix;
+
+                int flags = data.readUnsignedByte();
+
+                byte[] digest = new byte[digestLength];
+                data.readFully(digest);
+
+                long size = (flags & FLAG_SIZE) != 0 ? readVarLong(data) : -1;
+                BlockSignature blocks = (flags & FLAG_BLOCKS) != 0 ? readBlockSignature(data) : null;
+
+                handler.onElement(checkMethod.createFileInfos(new String(path, 0, pathLength, "UTF-8"), size, digest, blocks));
+            }
+        } catch (EOFException e) {
+            throw new BadServerResponseException("the binary file list is incomplete");
+        }
+    }
+
+    /**
+     * Reads the block signature of a file
+     *
+     * @param data
+     *            The stream to read
+     * @return The block signature
+     * @throws BadServerResponseException
+     *            If it isn't valid
+     * @throws IOException
+     *            If it failed to read it
+     */
+    private static BlockSignature readBlockSignature(DataInputStream data) throws BadServerResponseException, IOException {
+        long size = readVarLong(data);
+        long blockSize = readVarLong(data);
+
+        if(size < 0 || blockSize <= 0 || blockSize > Integer.MAX_VALUE || (size + blockSize - 1) / blockSize > Integer.MAX_VALUE)
+            throw new BadServerResponseException("invalid block signature in the binary file list");
+
+        int blockCount = (int) ((size + blockSize - 1) / blockSize);
+        List<Long> weak = new ArrayList<Long>(Math.min(blockCount, 65536));
+        List<String> strong = new ArrayList<String>(Math.min(blockCount, 65536));
+        byte[] md5 = new byte[STRONG_LENGTH];
+
+        for(int i = 0; i < blockCount; i++) {
+            weak.add((long) data.readInt());
+
+            data.readFully(md5);
+            strong.add(HashCheckMethod.toHex(md5));
+        }
+
+        return new BlockSignature(size, (int) blockSize, weak, strong);
+    }
+
+    /**
+     * Reads a length
+     *
+     * @param data
+     *            The stream to read
+     * @param max
+     *            The maximum valid length
+     * @return The length
+     * @throws BadServerResponseException
+     *            If it is too big
+     * @throws IOException
+     *            If it failed to read it
+     */
+    private static int readLength(DataInputStream data, int max) throws BadServerResponseException, IOException {
+        long length = readVarLong(data);
+
+        if(length > max)
+            throw new BadServerResponseException("invalid path length in the binary file list");
+
+        return (int) length;
+    }
+
+    /**
+     * Reads an unsigned LEB128 number
+     *
+     * @param data
+     *            The stream to read
+     * @return The number
+     * @throws BadServerResponseException
+     *            If it has more than 64 bits
+     * @throws IOException
+     *            If it failed to read it
+     */
+    private static long readVarLong(DataInputStream data) throws BadServerResponseException, IOException {
+        long value = 0;
+
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = data.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new BadServerResponseException("invalid number in the binary file list");
+    }
+
+}
@@ -18,10 +18,16 @@
  */
 package fr.theshark34.supdate.check;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.security.MessageDigest;
+import java.util.List;
 
 import fr.theshark34.supdate.SUpdate;
 import fr.theshark34.supdate.exception.UnableToCheckException;
+import fr.theshark34.supdate.files.BlockSignature;
 
 /**
  * The Check Method
@@ -58,7 +64,99 @@ public abstract class CheckMethod {
     public abstract Type getListType();
 
     /**
-     * Check a file
+     * The Type object of the elements of the file list, if the list
+     * can be read while it is received : each file is then checked as
+     * soon as it is parsed. By default, the element type of the list
+     * type if it is a List, else null (the response is parsed in one
+     * time and given to getFileList).
+     *
+     * <p>
+     *  A check method overriding getFileList to convert a List
+     *  response should return null here.
+     * </p>
+     *
+     * @return The type of the elements, or null
+     */
+    public Type getElementType() {
+        Type listType = getListType();
+
+        if(listType instanceof ParameterizedType && List.class.equals(((ParameterizedType) listType).getRawType()))
+            return ((ParameterizedType) listType).getActualTypeArguments()[0];
+
+        return null;
+    }
+
+    /**
+     * Convert the response of the server to the file list request
+     * (parsed with the list type) to the list of the files to check.
+     * By default, the response is the list.
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @param response
+     *            The parsed response
+     * @return The list of the files
+     */
+    @SuppressWarnings("unchecked")
+    public List<FileInfos> getFileList(SUpdate sUpdate, Object response) {
+        return (List<FileInfos>) response;
+    }
+
+    /**
+     * The length of the digests in the binary file lists (see
+     * {@link BinaryManifest}). By default 0 : the check method needs
+     * more than a digest per file, the list is always asked as JSON.
+     *
+     * @return The length of the digests, or 0
+     */
+    public int getBinaryDigestLength() {
+        return 0;
+    }
+
+    /**
+     * Creates the infos of a file read from a binary file list, if
+     * getBinaryDigestLength isn't 0
+     *
+     * @param fileRelativePath
+     *            The relative path of the file
+     * @param size
+     *            The size of the file, or -1 if unknown
+     * @param digest
+     *            The digest of the file
+     * @param blocks
+     *            The signature of the blocks of the file (can be null)
+     * @return The file infos
+     */
+    public FileInfos createFileInfos(String fileRelativePath, long size, byte[] digest, BlockSignature blocks) {
+        throw new UnsupportedOperationException(getName() + " doesn't support binary file lists");
+    }
+
+    /**
+     * Called when an update starts checking the files, before the
+     * file list is requested (it can be read and checked while it is
+     * received, without calling getFileList). Does nothing by default.
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     */
+    public void onFilesChecking(SUpdate sUpdate) {
+    }
+
+    /**
+     * Called when all the files were checked, with the files that
+     * need to be downloaded. Does nothing by default.
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @param outdatedFiles
+     *            The files to download
+     */
+    public void onFilesChecked(SUpdate sUpdate, List<FileInfos> outdatedFiles) {
+    }
+
+    /**
+     * Check a file. The files are checked in parallel, so this
+     * method can be called by several threads at the same time.
      *
      * @param infos
      *            The file infos
@@ -66,4 +164,81 @@ public abstract class CheckMethod {
      */
     public abstract boolean checkFile(SUpdate sUpdate, FileInfos infos) throws UnableToCheckException;
 
+    /**
+     * Compute the digest (made by createDigest) of a local file. If the
+     * file didn't change since the last update, the digest is taken
+     * from the hash index, without reading the file.
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @param infos
+     *            The infos of the file
+     * @param file
+     *            The local file
+     * @return The digest of the file
+     * @throws IOException
+     *            If it failed to read the file
+     */
+    protected byte[] digestFile(SUpdate sUpdate, FileInfos infos, File file) throws IOException {
+        // Getting the hash index of the running update
+        HashIndex index = sUpdate.getUpdater() != null ? sUpdate.getUpdater().getHashIndex() : null;
+
+        if(index != null) {
+            byte[] digest = index.get(infos.getFileRelativePath(), file);
+            if(digest != null)
+                return digest;
+        }
+
+        // Reading the file
+        long hashTime = System.currentTimeMillis();
+        MessageDigest digest = createDigest();
+        FileHasher.update(digest, file);
+
+        byte[] result = digest.digest();
+
+        // Remembering it for the next update
+        if(index != null)
+            index.put(infos.getFileRelativePath(), file, hashTime, result);
+
+        return result;
+    }
+
+    /**
+     * Create a digest to verify a downloaded file, it is fed with
+     * the bytes of the file while they are downloaded. Override it
+     * (and isValid) if your check method uses a digest.
+     *
+     * @return A new digest, or null if the downloads can't be verified
+     */
+    public MessageDigest createDigest() {
+        return null;
+    }
+
+    /**
+     * Called when a file was downloaded and verified, and is at its
+     * place, to set things like its modification time. Does nothing
+     * by default.
+     *
+     * @param infos
+     *            The infos of the file given by the server
+     * @param file
+     *            The downloaded file
+     */
+    public void onFileDownloaded(FileInfos infos, File file) {
+    }
+
+    /**
+     * Check if a downloaded file is the right one
+     *
+     * @param infos
+     *            The infos of the file given by the server
+     * @param digest
+     *            The result of the digest created by createDigest,
+     *            fed with the downloaded bytes
+     * @return True if the file is valid, false to download it again
+     */
+    public boolean isValid(FileInfos infos, byte[] digest) {
+        return true;
+    }
+
 }
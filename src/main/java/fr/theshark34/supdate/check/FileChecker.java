@@ -0,0 +1,205 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.theshark34.supdate.SUpdate;
+import fr.theshark34.supdate.exception.UnableToCheckException;
+
+/**
+ * The File Checker
+ *
+ * <p>
+ *     Checks the files in parallel with the check method, using a
+ *     pool of a given number of threads (by default, one per
+ *     processor).
+ * </p>
+ *
+ * <p>
+ *     The results are given back in the order of the file list,
+ *     so the onFileChecking events can be sent in the same order
+ *     as before, on the updater thread, whatever the file that
+ *     was checked first.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class FileChecker {
+
+    /**
+     * The current SUpdate instance
+     */
+    private SUpdate sUpdate;
+
+    /**
+     * The pool checking the files
+     */
+    private ExecutorService pool;
+
+    /**
+     * The check results, in the order of the file list
+     */
+    private List<Future<Boolean>> results;
+
+    /**
+     * The File Checker
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @param threads
+     *            The number of files checked at the same time
+     */
+    public FileChecker(SUpdate sUpdate, int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1");
+
+        this.sUpdate = sUpdate;
+        this.pool = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Starts checking the files, the results can be taken with
+     * getResult while the next files are checked
+     *
+     * @param fileList
+     *            The files to check
+     */
+    public void start(List<? extends FileInfos> fileList) {
+        results = new ArrayList<Future<Boolean>>(fileList.size());
+
+        // Submitting each file, the pool takes them in the list order
+        for(FileInfos infos : fileList)
+            submit(infos);
+
+        // No more files, the threads stop when they are done
+        finish();
+    }
+
+    /**
+     * Starts checking a file while the file list is still read,
+     * its result index is the number of files submitted before it.
+     * Call finish when all the files were submitted.
+     *
+     * @param infos
+     *            The file to check
+     */
+    public void submit(final FileInfos infos) {
+        if(results == null)
+            results = new ArrayList<Future<Boolean>>();
+
+        results.add(pool.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws UnableToCheckException {
+                // If the file watcher knows the file didn't change, it is up to date
+                if(sUpdate.getFileWatcher() != null && sUpdate.getFileWatcher().isUnchanged(infos)) {
+                    // Keeping its digest for the next updates
+                    HashIndex index = sUpdate.getUpdater() != null ? sUpdate.getUpdater().getHashIndex() : null;
+                    if(index != null)
+                        index.retain(infos.getFileRelativePath());
+
+                    return false;
+                }
+
+                return sUpdate.getCheckMethod().checkFile(sUpdate, infos);
+            }
+        }));
+    }
+
+    /**
+     * Tells that all the files were submitted, the threads stop
+     * when they are done
+     */
+    public void finish() {
+        if(results == null)
+            results = new ArrayList<Future<Boolean>>();
+
+        pool.shutdown();
+    }
+
+    /**
+     * Returns the check result of a file, waiting for it if it's
+     * not checked yet
+     *
+     * @param index
+     *            The index of the file in the list given to start
+     * @return If we need to download the file
+     * @throws UnableToCheckException
+     *            If the check method failed to check the file
+     */
+    public boolean getResult(int index) throws UnableToCheckException {
+        try {
+            return results.get(index).get();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof UnableToCheckException)
+                throw (UnableToCheckException) e.getCause();
+
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            // Keeping the interruption for the caller
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Interrupted while checking the files", e);
+        }
+    }
+
+    /**
+     * Returns if the result of a file is known, so getResult doesn't
+     * wait for it. False if the check failed, getResult then throws
+     * the error.
+     *
+     * @param index
+     *            The index of the file in the submitted files
+     * @return True if the file was checked
+     */
+    public boolean isChecked(int index) {
+        Future<Boolean> result = results.get(index);
+        if(!result.isDone() || result.isCancelled())
+            return false;
+
+        try {
+            result.get();
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            // Can't happen, the result is known
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Stops checking the files, the files not checked yet are skipped
+     */
+    public void cancel() {
+        pool.shutdownNow();
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * The File Hasher
+ *
+ * <p>
+ *     Feeds a digest with the content of a file, choosing the
+ *     fastest way for its size : the files smaller than the map
+ *     threshold are read with a FileChannel in a large direct buffer
+ *     (one per thread), the bigger ones are mapped in memory, by
+ *     regions of {@link #MAP_REGION_SIZE} bytes.
+ * </p>
+ *
+ * <p>
+ *     A mapped file stays mapped until the buffer is garbage
+ *     collected, and on Windows a mapped file can't be replaced or
+ *     deleted. So the mapping is disabled by default on Windows,
+ *     the checked files may need to be downloaded again.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class FileHasher {
+
+    /**
+     * The size of the read buffers
+     */
+    public static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The size of the regions mapped at the same time
+     */
+    public static final long MAP_REGION_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * The default map threshold (64 MB, disabled on Windows)
+     */
+    public static final long DEFAULT_MAP_THRESHOLD = System.getProperty("os.name", "").toLowerCase().contains("win") ? Long.MAX_VALUE : 64L * 1024 * 1024;
+
+    /**
+     * The read buffer of each thread
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * The minimum size of a file to map it in memory
+     */
+    private static volatile long mapThreshold = DEFAULT_MAP_THRESHOLD;
+
+    /**
+     * Update a digest with the content of a file
+     *
+     * @param digest
+     *            The digest to update
+     * @param file
+     *            The file to read
+     * @throws IOException
+     *            If it failed to read the file
+     */
+    public static void update(MessageDigest digest, File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+
+            if(size >= mapThreshold)
+                // Mapping the big files, region by region
+                for(long position = 0; position < size; position += MAP_REGION_SIZE)
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_REGION_SIZE, size - position)));
+            else {
+                // Reading the others in the buffer
+                ByteBuffer buffer = BUFFERS.get();
+                buffer.clear();
+
+                while(channel.read(buffer) != -1) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Sets the minimum size of a file to map it in memory
+     *
+     * @param threshold
+     *            The size (in bytes), Long.MAX_VALUE to never map the files
+     */
+    public static void setMapThreshold(long threshold) {
+        if(threshold < 0)
+            throw new IllegalArgumentException("threshold can't be negative");
+
+        mapThreshold = threshold;
+    }
+
+    /**
+     * Returns the minimum size of a file to map it in memory
+     *
+     * @return The size (in bytes), Long.MAX_VALUE if the files are never mapped
+     */
+    public static long getMapThreshold() {
+        return mapThreshold;
+    }
+
+}
@@ -18,6 +18,8 @@
  */
 package fr.theshark34.supdate.check;
 
+import fr.theshark34.supdate.files.BlockSignature;
+
 /**
  * The FileInfos
  *
@@ -36,6 +38,17 @@ public class FileInfos {
      */
     private String fileRelativePath;
 
+    /**
+     * The size of the file (in bytes), if the server gave it
+     */
+    private Long size;
+
+    /**
+     * The signature of the blocks of the file, given by the server
+     * for the big files, to download only their changed blocks
+     */
+    private BlockSignature blocks;
+
     /**
      * The FileInfos
      *
@@ -46,6 +59,22 @@ public class FileInfos {
         this.fileRelativePath = fileRelativePath;
     }
 
+    /**
+     * The FileInfos
+     *
+     * @param fileRelativePath
+     *            The relative path of the file
+     * @param size
+     *            The size of the file, or -1 if unknown
+     * @param blocks
+     *            The signature of the blocks of the file (can be null)
+     */
+    public FileInfos(String fileRelativePath, long size, BlockSignature blocks) {
+        this.fileRelativePath = fileRelativePath;
+        this.size = size >= 0 ? size : null;
+        this.blocks = blocks;
+    }
+
     /**
      * Return the relative path of the file
      *
@@ -55,4 +84,67 @@ public class FileInfos {
         return this.fileRelativePath;
     }
 
+    /**
+     * Return the size of the file, to count it in the total to
+     * download before asking it to the server
+     *
+     * @return The file size (in bytes), or -1 if the server didn't give it
+     */
+    public long getSize() {
+        if(this.size != null && this.size >= 0)
+            return this.size;
+
+        // The block signature knows it too
+        return this.blocks != null ? this.blocks.getSize() : -1;
+    }
+
+    /**
+     * Return the signature of the blocks of the file
+     *
+     * @return The block signature, or null if the server didn't give it
+     */
+    public BlockSignature getBlockSignature() {
+        return this.blocks;
+    }
+
+    /**
+     * Returns if other infos describe the same version of the same
+     * file : same type, same path, same size and same check method
+     * data (the block signature is given by the data, so it isn't
+     * compared)
+     *
+     * @param obj
+     *            The other infos
+     * @return True if they are the same
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj)
+            return true;
+
+        if(obj == null || obj.getClass() != getClass())
+            return false;
+
+        FileInfos other = (FileInfos) obj;
+        return same(fileRelativePath, other.fileRelativePath) && getSize() == other.getSize();
+    }
+
+    @Override
+    public int hashCode() {
+        return fileRelativePath != null ? fileRelativePath.hashCode() : 0;
+    }
+
+    /**
+     * Returns if two values are equal, or both null
+     *
+     * @param first
+     *            The first value
+     * @param second
+     *            The second value
+     * @return True if they are the same
+     */
+    protected static boolean same(Object first, Object second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
 }
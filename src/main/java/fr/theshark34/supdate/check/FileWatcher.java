@@ -0,0 +1,354 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import fr.theshark34.supdate.Updater;
+
+import static fr.theshark34.supdate.SUpdate.logger;
+
+/**
+ * The File Watcher
+ *
+ * <p>
+ *     Watches the output folder between the updates, for the
+ *     launchers running for a long time (the same watcher can be
+ *     given to each new SUpdate instance) : it remembers which files
+ *     were created, modified or deleted since the last update, and
+ *     on the next update, only these files (and the new or updated
+ *     files of the server) are checked, the others are up to date.
+ * </p>
+ *
+ * <p>
+ *     Java 6 has no WatchService, so the folder is scanned in the
+ *     background at a fixed interval, comparing the size and the
+ *     modification time of each file with the last scan. If too much
+ *     files changed (more than the max changes), the watcher overflows
+ *     and the next update checks all the files. A scan is also done
+ *     when the update starts, so the last changes are never missed.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class FileWatcher {
+
+    /**
+     * The watched folder
+     */
+    private File folder;
+
+    /**
+     * The time between two scans
+     */
+    private long interval;
+
+    /**
+     * The unit of the interval
+     */
+    private TimeUnit unit;
+
+    /**
+     * The maximum number of changed files remembered
+     */
+    private int maxChanges;
+
+    /**
+     * The thread scanning the folder
+     */
+    private ScheduledExecutorService scanner;
+
+    /**
+     * The size and the modification time of each file on the last scan
+     */
+    private Map<String, long[]> snapshot;
+
+    /**
+     * The files changed since the last update
+     */
+    private Set<String> changes = new HashSet<String>();
+
+    /**
+     * If too much files changed
+     */
+    private boolean overflow;
+
+    /**
+     * The infos of the files of the server on the last successful
+     * update, by relative path, null if there wasn't one since the
+     * watcher started
+     */
+    private Map<String, FileInfos> knownFiles;
+
+    /**
+     * The changes given to the running update, null if there is none
+     */
+    private Set<String> updateChanges;
+
+    /**
+     * If the changes can be used by the running update
+     */
+    private boolean usable;
+
+    /**
+     * The File Watcher, scanning every 10 seconds, remembering at
+     * most 10000 changed files
+     *
+     * @param folder
+     *            The output folder to watch
+     */
+    public FileWatcher(File folder) {
+        this(folder, 10, TimeUnit.SECONDS, 10000);
+    }
+
+    /**
+     * The File Watcher
+     *
+     * @param folder
+     *            The output folder to watch
+     * @param interval
+     *            The time between two scans
+     * @param unit
+     *            The unit of the interval
+     * @param maxChanges
+     *            The maximum number of changed files remembered,
+     *            if more files change, all the files are checked
+     */
+    public FileWatcher(File folder, long interval, TimeUnit unit, int maxChanges) {
+        this.folder = folder;
+        this.interval = interval;
+        this.unit = unit;
+        this.maxChanges = maxChanges;
+    }
+
+    /**
+     * Start watching the output folder
+     */
+    public synchronized void start() {
+        if(scanner != null)
+            return;
+
+        // Taking the first snapshot
+        scan();
+
+        scanner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "S-Update File Watcher");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        scanner.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Stop watching the output folder, the next update checks all
+     * the files
+     */
+    public synchronized void stop() {
+        if(scanner == null)
+            return;
+
+        scanner.shutdownNow();
+        scanner = null;
+
+        // The changes made while not watching are unknown
+        snapshot = null;
+        knownFiles = null;
+        changes.clear();
+        overflow = false;
+    }
+
+    /**
+     * Scan the output folder, and remember the changed files
+     */
+    private void scan() {
+        Map<String, long[]> files = new HashMap<String, long[]>();
+
+        // Listing the files without the lock, so the checks are not blocked
+        try {
+            list(folder, "", files);
+        } catch (RuntimeException e) {
+            logger.warning("Unable to scan the output folder. Error : ", e);
+            files = null;
+        }
+
+        compare(files);
+    }
+
+    /**
+     * Compare a scan with the last one, and remember the changed files
+     *
+     * @param files
+     *            The state of each file, null if the scan failed
+     */
+    private synchronized void compare(Map<String, long[]> files) {
+        if(files == null) {
+            overflow = true;
+            return;
+        }
+
+        if(snapshot != null && !overflow) {
+            // The created and modified files
+            for(Map.Entry<String, long[]> file : files.entrySet()) {
+                long[] old = snapshot.get(file.getKey());
+                if(old == null || !Arrays.equals(old, file.getValue()))
+                    changes.add(file.getKey());
+            }
+
+            // The deleted files
+            for(String path : snapshot.keySet())
+                if(!files.containsKey(path))
+                    changes.add(path);
+
+            if(changes.size() > maxChanges) {
+                logger.info("More than %d files changed, the next update will check all the files", maxChanges);
+
+                overflow = true;
+                changes.clear();
+            }
+        }
+
+        snapshot = files;
+    }
+
+    /**
+     * List the files of a folder (recursively)
+     *
+     * @param folder
+     *            The folder to list
+     * @param path
+     *            The relative path of the folder ('' or ending with '/')
+     * @param files
+     *            The map where to put the state of each file
+     */
+    private void list(File folder, String path, Map<String, long[]> files) {
+        File[] children = folder.listFiles();
+        if(children == null)
+            return;
+
+        for(File child : children)
+            if(child.isDirectory())
+                list(child, path + child.getName() + "/", files);
+            else if(!Updater.isStateFile(this.folder, child))
+                // Its size and its time, a change of any of them is a change of the file
+                files.put(path + child.getName(), new long[] { child.length(), child.lastModified() });
+    }
+
+    /**
+     * Called when an update starts checking the files : the changes
+     * are given to the update, and the next changes are remembered
+     * for the next one
+     *
+     * @param fullCheck
+     *            If all the files are checked anyway
+     * @return True if only the changed files need to be checked
+     */
+    public boolean beginUpdate(boolean fullCheck) {
+        // Getting the last changes
+        scan();
+
+        return takeChanges(fullCheck);
+    }
+
+    /**
+     * Give the changes to the update
+     *
+     * @param fullCheck
+     *            If all the files are checked anyway
+     * @return True if only the changed files need to be checked
+     */
+    private synchronized boolean takeChanges(boolean fullCheck) {
+        // If the last update didn't end, its changes are still not checked
+        if(updateChanges != null)
+            changes.addAll(updateChanges);
+
+        usable = !fullCheck && !overflow && knownFiles != null && scanner != null;
+        updateChanges = changes;
+        changes = new HashSet<String>();
+        overflow = false;
+
+        return usable;
+    }
+
+    /**
+     * Returns if a file is up to date : it was on the server on the
+     * last update with the same infos (the server didn't publish a
+     * new version), and it didn't change locally since. Called while
+     * the files are checked.
+     *
+     * @param infos
+     *            The infos of the file given by the server
+     * @return True if it doesn't need to be checked
+     */
+    public synchronized boolean isUnchanged(FileInfos infos) {
+        return usable && infos.equals(knownFiles.get(infos.getFileRelativePath())) && !updateChanges.contains(infos.getFileRelativePath());
+    }
+
+    /**
+     * Returns the number of files changed since the last update
+     *
+     * @return The number of changed files
+     */
+    public synchronized int getChangeCount() {
+        return updateChanges != null ? updateChanges.size() : changes.size();
+    }
+
+    /**
+     * Called when the update ended successfully
+     *
+     * @param files
+     *            The files of the server
+     * @param outdatedFiles
+     *            The files that needed to be downloaded, they are
+     *            checked again on the next update (in case their
+     *            download failed)
+     */
+    public synchronized void endUpdate(Collection<? extends FileInfos> files, Collection<? extends FileInfos> outdatedFiles) {
+        knownFiles = new HashMap<String, FileInfos>();
+        for(FileInfos infos : files)
+            knownFiles.put(infos.getFileRelativePath(), infos);
+
+        for(FileInfos infos : outdatedFiles)
+            changes.add(infos.getFileRelativePath());
+
+        updateChanges = null;
+        usable = false;
+    }
+
+}
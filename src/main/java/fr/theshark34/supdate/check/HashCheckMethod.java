@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+
+import fr.theshark34.supdate.SUpdate;
+import fr.theshark34.supdate.exception.UnableToCheckException;
+import fr.theshark34.supdate.files.BlockSignature;
+
+/**
+ * The Hash CheckMethod
+ *
+ * <p>
+ *    The base of the check methods comparing a hash of the local
+ *    files with the one given by the server. A hash check method
+ *    just gives its name, its file list type, and its digest : the
+ *    files are hashed with the FileHasher (and the hash index), and
+ *    the downloaded files are verified while they are downloaded.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public abstract class HashCheckMethod extends CheckMethod {
+
+    /**
+     * The hexadecimal digits
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    @Override
+    public boolean checkFile(SUpdate sUpdate, FileInfos infos) throws UnableToCheckException {
+        // Getting the local file
+        File localFile = new File(sUpdate.getOutputFolder(), infos.getFileRelativePath());
+
+        // If the local file doesn't exist
+        if(!localFile.exists())
+            // Returning true
+            return true;
+
+        // Getting its hash (from the hash index if the file didn't change)
+        try {
+            return !isValid(infos, digestFile(sUpdate, infos, localFile));
+        } catch (IOException e) {
+            // If it failed, throwing an unable to check exception
+            throw new UnableToCheckException(localFile, e);
+        }
+    }
+
+    /**
+     * Create the digest computing the hash of the files
+     *
+     * @return A new digest
+     */
+    @Override
+    public abstract MessageDigest createDigest();
+
+    @Override
+    public boolean isValid(FileInfos infos, byte[] digest) {
+        return toHex(digest).equalsIgnoreCase(getHash(infos));
+    }
+
+    /**
+     * The digest length of the check method, the hashes are sent as
+     * raw bytes in the binary file lists
+     *
+     * @return The length of the digests
+     */
+    @Override
+    public int getBinaryDigestLength() {
+        return createDigest().getDigestLength();
+    }
+
+    @Override
+    public FileInfos createFileInfos(String fileRelativePath, long size, byte[] digest, BlockSignature blocks) {
+        return new HashFileInfos(fileRelativePath, toHex(digest), size, blocks);
+    }
+
+    /**
+     * Returns the hash of a file given by the server, in hexadecimal
+     *
+     * @param infos
+     *            The infos of the file
+     * @return Its hash
+     */
+    protected String getHash(FileInfos infos) {
+        return ((HashFileInfos) infos).getHash();
+    }
+
+    /**
+     * Convert a digest to its hexadecimal representation
+     *
+     * @param digest
+     *            The digest bytes
+     * @return The hexadecimal string
+     */
+    public static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+
+        for(int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+        }
+
+        return new String(hex);
+    }
+
+}
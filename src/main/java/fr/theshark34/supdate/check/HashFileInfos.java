@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check;
+
+import fr.theshark34.supdate.files.BlockSignature;
+
+/**
+ * The Hash FileInfos
+ *
+ * <p>
+ *    This is the file info for the hash check methods, containing
+ *    the infos about a file, its name and its hash (in hexadecimal).
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class HashFileInfos extends FileInfos {
+
+    /**
+     * The file hash
+     */
+    private String hash;
+
+    /**
+     * The Hash FileInfos
+     *
+     * @param fileRelativePath
+     *            The relative path of the file
+     * @param hash
+     *            The file hash
+     */
+    public HashFileInfos(String fileRelativePath, String hash) {
+        super(fileRelativePath);
+
+        this.hash = hash;
+    }
+
+    /**
+     * The Hash FileInfos
+     *
+     * @param fileRelativePath
+     *            The relative path of the file
+     * @param hash
+     *            The file hash
+     * @param size
+     *            The file size, or -1 if unknown
+     * @param blocks
+     *            The signature of the blocks of the file (can be null)
+     */
+    public HashFileInfos(String fileRelativePath, String hash, long size, BlockSignature blocks) {
+        super(fileRelativePath, size, blocks);
+
+        this.hash = hash;
+    }
+
+    /**
+     * Return the file hash
+     *
+     * @return The file hash
+     */
+    public String getHash() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return super.equals(obj) && same(hash, ((HashFileInfos) obj).hash);
+    }
+
+}
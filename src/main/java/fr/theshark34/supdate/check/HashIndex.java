@@ -0,0 +1,363 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fr.theshark34.supdate.Updater;
+
+import static fr.theshark34.supdate.SUpdate.logger;
+
+/**
+ * The Hash Index
+ *
+ * <p>
+ *     A file in the output folder remembering the digest of each
+ *     checked file, with its size and its last modification time.
+ *     If a file still has the same size and time on the next update,
+ *     its digest is taken from the index, without reading the file.
+ * </p>
+ *
+ * <p>
+ *     A file modified less than {@link #MTIME_GRANULARITY} milliseconds
+ *     before it was hashed isn't trusted, it could be modified again
+ *     without changing its time (some file systems only keep the
+ *     time to the second, or two). The index is written in a temporary
+ *     file, then renamed, and it ends with a marker line : a broken or
+ *     incomplete index is ignored, the files are just hashed again.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class HashIndex {
+
+    /**
+     * The name of the index file, in the output folder
+     */
+    public static final String INDEX_FILE = Updater.STATE_FILE_PREFIX + "index";
+
+    /**
+     * The name of the temporary index file, while it is written
+     */
+    public static final String TEMP_INDEX_FILE = INDEX_FILE + ".tmp";
+
+    /**
+     * The precision of the modification times (FAT keeps them to two seconds)
+     */
+    public static final long MTIME_GRANULARITY = 2000;
+
+    /**
+     * The first word of the index, followed by its format version
+     */
+    private static final String HEADER = "S-Update-Index 1";
+
+    /**
+     * The last line of a complete index
+     */
+    private static final String FOOTER = "end";
+
+    /**
+     * The output folder
+     */
+    private File folder;
+
+    /**
+     * The name of the check method that made the digests
+     */
+    private String checkMethodName;
+
+    /**
+     * The entries loaded from the index, not used yet during this update
+     */
+    private Map<String, Entry> loaded = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * The entries of the files checked (or known to be up to date)
+     * during this update, the only ones saved (the others are files
+     * that doesn't exist anymore)
+     */
+    private Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * The Hash Index
+     *
+     * @param folder
+     *            The output folder, where is the index
+     * @param checkMethodName
+     *            The name of the check method, an index made by
+     *            another one is ignored
+     */
+    public HashIndex(File folder, String checkMethodName) {
+        this.folder = folder;
+        this.checkMethodName = checkMethodName;
+    }
+
+    /**
+     * Returns the digest of a file, if it didn't change since it was
+     * put in the index
+     *
+     * @param relativePath
+     *            The path of the file in the output folder
+     * @param file
+     *            The local file
+     * @return Its digest, or null if it needs to be hashed
+     */
+    public byte[] get(String relativePath, File file) {
+        Entry entry = entries.get(relativePath);
+
+        // Taking the entry of the last update, it is saved again
+        if(entry == null && (entry = loaded.remove(relativePath)) != null)
+            entries.put(relativePath, entry);
+
+        if(entry == null || entry.size != file.length() || entry.mtime != file.lastModified())
+            return null;
+
+        // If the file could have been modified again without changing its time
+        if(entry.hashTime - entry.mtime < MTIME_GRANULARITY)
+            return null;
+
+        return entry.digest;
+    }
+
+    /**
+     * Keeps the entry of a file that wasn't checked during this update
+     * (it is known to be up to date), so it is saved again : else it
+     * would be hashed on the next update checking it
+     *
+     * @param relativePath
+     *            The path of the file in the output folder
+     */
+    public void retain(String relativePath) {
+        Entry entry = loaded.remove(relativePath);
+
+        if(entry != null && !entries.containsKey(relativePath))
+            entries.put(relativePath, entry);
+    }
+
+    /**
+     * Put the digest of a file in the index
+     *
+     * @param relativePath
+     *            The path of the file in the output folder
+     * @param file
+     *            The local file
+     * @param hashTime
+     *            The time when the file started to be hashed
+     * @param digest
+     *            Its digest
+     */
+    public void put(String relativePath, File file, long hashTime, byte[] digest) {
+        long mtime = file.lastModified();
+
+        // If the file was removed, or modified while it was hashed
+        if(mtime == 0L || mtime > hashTime) {
+            entries.remove(relativePath);
+            return;
+        }
+
+        entries.put(relativePath, new Entry(file.length(), mtime, hashTime, digest));
+    }
+
+    /**
+     * Put the digest of a file just downloaded (and verified) in the
+     * index. If the file was modified less than MTIME_GRANULARITY
+     * milliseconds ago, its modification time is moved back by it : a
+     * later modification then always changes the time, so the digest
+     * can be trusted on the next update.
+     *
+     * @param relativePath
+     *            The path of the file in the output folder
+     * @param file
+     *            The downloaded file
+     * @param digest
+     *            Its digest
+     */
+    public void putDownloaded(String relativePath, File file, byte[] digest) {
+        long now = System.currentTimeMillis();
+        long mtime = file.lastModified();
+
+        if(mtime != 0L && now - mtime < MTIME_GRANULARITY && !file.setLastModified(now - MTIME_GRANULARITY)) {
+            // The time can't be changed, the file will be hashed again
+            entries.remove(relativePath);
+            return;
+        }
+
+        put(relativePath, file, now, digest);
+    }
+
+    /**
+     * Returns the name of the check method that made the digests
+     *
+     * @return The check method name
+     */
+    public String getCheckMethodName() {
+        return checkMethodName;
+    }
+
+    /**
+     * Load the index from the output folder, if there is a valid one
+     */
+    public synchronized void load() {
+        File index = new File(folder, INDEX_FILE);
+
+        // If the update crashed between the deletion of the old index and the renaming of the new one
+        if(!index.exists())
+            index = new File(folder, TEMP_INDEX_FILE);
+
+        if(!index.exists())
+            return;
+
+        BufferedReader reader = null;
+        Map<String, Entry> read = new HashMap<String, Entry>();
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), "UTF-8"));
+
+            // Checking the header, the digests of another check method are useless
+            if(!(HEADER + " " + checkMethodName).equals(reader.readLine()))
+                return;
+
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.equals(FOOTER)) {
+                    // The index is complete
+                    loaded.putAll(read);
+                    return;
+                }
+
+                // size, mtime, hash time, digest, path (last, it could contain tabs)
+                String[] fields = line.split("\t", 5);
+                read.put(fields[4], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), fromHex(fields[3])));
+            }
+
+            logger.info("The hash index is incomplete, ignoring it");
+        } catch (Exception e) {
+            logger.warning("Unable to read the hash index, ignoring it. Error : ", e);
+        } finally {
+            if(reader != null)
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+        }
+    }
+
+    /**
+     * Save the index in the output folder, only with the files checked
+     * during this update
+     *
+     * @throws IOException
+     *            If it failed to write it
+     */
+    public synchronized void save() throws IOException {
+        File temp = new File(folder, TEMP_INDEX_FILE);
+        File index = new File(folder, INDEX_FILE);
+
+        folder.mkdirs();
+
+        // Writing the new index in the temporary file
+        FileOutputStream output = new FileOutputStream(temp);
+        try {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+            writer.write(HEADER + " " + checkMethodName + "\n");
+
+            for(Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                writer.write(entry.size + "\t" + entry.mtime + "\t" + entry.hashTime + "\t" + HashCheckMethod.toHex(entry.digest) + "\t" + mapEntry.getKey() + "\n");
+            }
+
+            writer.write(FOOTER + "\n");
+            writer.flush();
+
+            // Making sure it is on the disk before removing the old one
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+
+        // Replacing the old index (renameTo doesn't replace files on Windows)
+        if(index.exists() && !index.delete())
+            throw new IOException("Unable to replace the hash index " + index);
+
+        if(!temp.renameTo(index))
+            throw new IOException("Unable to rename the hash index " + temp);
+    }
+
+    /**
+     * Convert a hexadecimal string to bytes
+     *
+     * @param hex
+     *            The hexadecimal string
+     * @return The bytes
+     */
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+
+        for(int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+
+        return bytes;
+    }
+
+    /**
+     * An entry of the index
+     */
+    private static class Entry {
+
+        /**
+         * The size of the file
+         */
+        private final long size;
+
+        /**
+         * Its last modification time
+         */
+        private final long mtime;
+
+        /**
+         * When it started to be hashed
+         */
+        private final long hashTime;
+
+        /**
+         * Its digest
+         */
+        private final byte[] digest;
+
+        Entry(long size, long mtime, long hashTime, byte[] digest) {
+            this.size = size;
+            this.mtime = mtime;
+            this.hashTime = hashTime;
+            this.digest = digest;
+        }
+
+    }
+
+}
@@ -18,10 +18,6 @@
  */
 package fr.theshark34.supdate.check.md5;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.lang.reflect.Type;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -29,10 +25,9 @@ import java.util.List;
 
 import com.google.gson.reflect.TypeToken;
 
-import fr.theshark34.supdate.SUpdate;
-import fr.theshark34.supdate.check.CheckMethod;
 import fr.theshark34.supdate.check.FileInfos;
-import fr.theshark34.supdate.exception.UnableToCheckException;
+import fr.theshark34.supdate.check.HashCheckMethod;
+import fr.theshark34.supdate.files.BlockSignature;
 
 /**
  * The MD5 CheckMethod
@@ -45,7 +40,7 @@ import fr.theshark34.supdate.exception.UnableToCheckException;
  * @version 3.0.0-BETA
  * @author TheShark34
  */
-public class MD5CheckMethod extends CheckMethod {
+public class MD5CheckMethod extends HashCheckMethod {
 
     public String getName() {
         return "md5-check-method";
@@ -55,47 +50,24 @@ public class MD5CheckMethod extends CheckMethod {
         return new TypeToken<List<MD5FileInfos>>(){}.getType();
     }
 
-    public boolean checkFile(SUpdate sUpdate, FileInfos infos) throws UnableToCheckException {
-        // Getting the file infos
-        MD5FileInfos md5FileInfo = (MD5FileInfos) infos;
-
-        // Getting the local file
-        File localFile = new File(sUpdate.getOutputFolder(), infos.getFileRelativePath());
-
-        // If the local file doesn't exist
-        if(!localFile.exists())
-            // Returning true
-            return true;
-
-        // Getting its MD5
+    @Override
+    public MessageDigest createDigest() {
         try {
-            InputStream fis = new FileInputStream(localFile);
-
-            byte[] buffer = new byte[1024];
-            MessageDigest complete = MessageDigest.getInstance("MD5");
-            int numRead;
-
-            do {
-                numRead = fis.read(buffer);
-                if (numRead > 0)
-                    complete.update(buffer, 0, numRead);
-            } while (numRead != -1);
-
-            fis.close();
-            byte[] md5Bytes = complete.digest();
-            String md5 = "";
-
-            for (byte b : md5Bytes)
-                md5 += Integer.toString((b & 0xff) + 0x100, 16).substring(1);
-
-            return !md5.equals(md5FileInfo.getMD5());
-        } catch (IOException e) {
-            // If it failed, throwing an unable to check exception
-            throw new UnableToCheckException(localFile, e);
+            return MessageDigest.getInstance("MD5");
         } catch (NoSuchAlgorithmException e) {
-            // If it failed, throwing an unable to check exception
-            throw new UnableToCheckException(localFile, e);
+            // Every Java platform has MD5
+            throw new IllegalStateException(e);
         }
     }
 
+    @Override
+    protected String getHash(FileInfos infos) {
+        return ((MD5FileInfos) infos).getMD5();
+    }
+
+    @Override
+    public FileInfos createFileInfos(String fileRelativePath, long size, byte[] digest, BlockSignature blocks) {
+        return new MD5FileInfos(fileRelativePath, toHex(digest), size, blocks);
+    }
+
 }
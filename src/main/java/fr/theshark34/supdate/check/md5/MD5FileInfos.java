@@ -19,6 +19,7 @@
 package fr.theshark34.supdate.check.md5;
 
 import fr.theshark34.supdate.check.FileInfos;
+import fr.theshark34.supdate.files.BlockSignature;
 
 /**
  * The MD5 FileInfos
@@ -52,6 +53,24 @@ public class MD5FileInfos extends FileInfos {
         this.md5 = md5;
     }
 
+    /**
+     * The MD5 FileInfos
+     *
+     * @param fileRelativePath
+     *            The relative path of the file
+     * @param md5
+     *            The file MD5
+     * @param size
+     *            The file size, or -1 if unknown
+     * @param blocks
+     *            The signature of the blocks of the file (can be null)
+     */
+    public MD5FileInfos(String fileRelativePath, String md5, long size, BlockSignature blocks) {
+        super(fileRelativePath, size, blocks);
+
+        this.md5 = md5;
+    }
+
     /**
      * Return the file MD5
      *
@@ -61,4 +80,9 @@ public class MD5FileInfos extends FileInfos {
         return this.md5;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        return super.equals(obj) && same(md5, ((MD5FileInfos) obj).md5);
+    }
+
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check.merkle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import fr.theshark34.supdate.SUpdate;
+import fr.theshark34.supdate.Updater;
+import fr.theshark34.supdate.check.FileInfos;
+import fr.theshark34.supdate.check.HashIndex;
+import fr.theshark34.supdate.check.md5.MD5CheckMethod;
+import fr.theshark34.supdate.exception.UnableToCheckException;
+
+import static fr.theshark34.supdate.SUpdate.logger;
+
+/**
+ * The Merkle CheckMethod
+ *
+ * <p>
+ *    A MD5 check method where the server gives the files as a tree
+ *    of folders, each one with a hash of its content (see
+ *    {@link MerkleNode}). The client remembers the hash of each folder
+ *    that was up to date, and on the next update, the files of a
+ *    folder with the same hash are not checked at all : if one mod
+ *    folder changed, only its files are read.
+ * </p>
+ *
+ * <p>
+ *    The files of the unchanged folders are still in the file list
+ *    (so the applications like the FileDeleter know them), but only
+ *    their presence is checked, they are not read : a deleted file is
+ *    downloaded again, but a file modified by the user in an unchanged
+ *    folder is not detected, use SUpdate.setFullCheck to check all
+ *    the files again.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class MerkleCheckMethod extends MD5CheckMethod {
+
+    /**
+     * The name of the file remembering the hashes of the up to date
+     * folders, in the output folder
+     */
+    public static final String CACHE_FILE = Updater.STATE_FILE_PREFIX + "merkle";
+
+    /**
+     * The hashes of the folders of the server tree, by path
+     */
+    private Map<String, String> folderHashes;
+
+    @Override
+    public String getName() {
+        return "merkle-check-method";
+    }
+
+    @Override
+    public Type getListType() {
+        return MerkleNode.class;
+    }
+
+    @Override
+    public int getBinaryDigestLength() {
+        // The tree is not a list
+        return 0;
+    }
+
+    @Override
+    public List<FileInfos> getFileList(SUpdate sUpdate, Object response) {
+        // Loading the hashes of the folders that were up to date
+        Map<String, String> cache = sUpdate.isFullCheck() ? new HashMap<String, String>() : loadCache(sUpdate);
+
+        List<FileInfos> fileList = new ArrayList<FileInfos>();
+        folderHashes = new HashMap<String, String>();
+
+        int unchanged = addFiles((MerkleNode) response, "", cache, false, fileList);
+
+        logger.info("%d files are in unchanged folders", unchanged);
+
+        return fileList;
+    }
+
+    /**
+     * Add the files of a folder (and of its sub-folders) to the file list
+     *
+     * @param node
+     *            The folder
+     * @param path
+     *            The path of the folder ('' for the root, else ending with '/')
+     * @param cache
+     *            The hashes of the folders that were up to date
+     * @param unchanged
+     *            If a parent folder didn't change
+     * @param fileList
+     *            The file list
+     * @return The number of files in unchanged folders
+     */
+    private int addFiles(MerkleNode node, String path, Map<String, String> cache, boolean unchanged, List<FileInfos> fileList) {
+        folderHashes.put(path, node.getHash());
+
+        // If the folder has the same hash as when it was up to date, its files are too
+        unchanged = unchanged || node.getHash() != null && node.getHash().equalsIgnoreCase(cache.get(path));
+        int count = 0;
+
+        for(MerkleNode.FileEntry file : node.getFiles()) {
+            fileList.add(new MerkleFileInfos(path + file.getName(), file.getMD5(), unchanged));
+
+            if(unchanged)
+                count++;
+        }
+
+        for(MerkleNode child : node.getChildren())
+            count += addFiles(child, path + child.getName() + "/", cache, unchanged, fileList);
+
+        return count;
+    }
+
+    @Override
+    public boolean checkFile(SUpdate sUpdate, FileInfos infos) throws UnableToCheckException {
+        // The files of the unchanged folders are up to date, if they weren't deleted
+        if(((MerkleFileInfos) infos).isUnchanged()) {
+            // Keeping their digests, for when their folder changes
+            HashIndex index = sUpdate.getUpdater() != null ? sUpdate.getUpdater().getHashIndex() : null;
+            if(index != null)
+                index.retain(infos.getFileRelativePath());
+
+            return !new File(sUpdate.getOutputFolder(), infos.getFileRelativePath()).isFile();
+        }
+
+        return super.checkFile(sUpdate, infos);
+    }
+
+    @Override
+    public void onFilesChecked(SUpdate sUpdate, List<FileInfos> outdatedFiles) {
+        // The folders containing an outdated file are not up to date (they will be on the next update, once checked)
+        Set<String> outdatedFolders = new HashSet<String>();
+
+        for(FileInfos infos : outdatedFiles) {
+            String path = infos.getFileRelativePath();
+
+            for(int i = path.lastIndexOf('/'); i >= 0; i = path.lastIndexOf('/', i - 1))
+                outdatedFolders.add(path.substring(0, i + 1));
+
+            outdatedFolders.add("");
+        }
+
+        Map<String, String> cache = new HashMap<String, String>(folderHashes);
+        cache.keySet().removeAll(outdatedFolders);
+
+        saveCache(sUpdate, cache);
+    }
+
+    /**
+     * Load the hashes of the folders that were up to date
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @return The hashes, by folder path (empty if there is no cache)
+     */
+    private Map<String, String> loadCache(SUpdate sUpdate) {
+        File file = new File(sUpdate.getOutputFolder(), CACHE_FILE);
+        Map<String, String> cache = null;
+
+        if(file.isFile()) {
+            Reader reader = null;
+
+            try {
+                reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+                cache = new Gson().fromJson(reader, new TypeToken<Map<String, String>>(){}.getType());
+            } catch (IOException e) {
+                logger.warning("Unable to read the folder hashes, checking all the files. Error : ", e);
+            } catch (JsonParseException e) {
+                logger.warning("Unable to read the folder hashes, checking all the files. Error : ", e);
+            } finally {
+                if(reader != null)
+                    try {
+                        reader.close();
+                    } catch (IOException ignored) {
+                    }
+            }
+        }
+
+        return cache != null ? cache : new HashMap<String, String>();
+    }
+
+    /**
+     * Save the hashes of the folders that are up to date
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @param cache
+     *            The hashes, by folder path
+     */
+    private void saveCache(SUpdate sUpdate, Map<String, String> cache) {
+        File file = new File(sUpdate.getOutputFolder(), CACHE_FILE);
+        File temp = new File(sUpdate.getOutputFolder(), CACHE_FILE + ".tmp");
+
+        try {
+            sUpdate.getOutputFolder().mkdirs();
+
+            // Writing a temporary file, so a crash can't leave a broken cache
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                Writer writer = new OutputStreamWriter(output, "UTF-8");
+                new Gson().toJson(cache, writer);
+                writer.flush();
+
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+
+            if(file.exists() && !file.delete() || !temp.renameTo(file))
+                throw new IOException("Unable to replace " + file);
+        } catch (IOException e) {
+            logger.warning("Unable to save the folder hashes. Error : ", e);
+
+            // Without a cache, all the files are checked on the next update
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check.merkle;
+
+import fr.theshark34.supdate.check.md5.MD5FileInfos;
+
+/**
+ * The Merkle FileInfos
+ *
+ * <p>
+ *    This is the file info for the Merkle Check Method, a MD5
+ *    FileInfos knowing if its folder is the same as on the last
+ *    update.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class MerkleFileInfos extends MD5FileInfos {
+
+    /**
+     * If the folder of the file didn't change since the last update
+     */
+    private boolean unchanged;
+
+    /**
+     * The Merkle FileInfos
+     *
+     * @param fileRelativePath
+     *            The relative path of the file
+     * @param md5
+     *            The file MD5
+     * @param unchanged
+     *            If the folder of the file didn't change since the
+     *            last update
+     */
+    public MerkleFileInfos(String fileRelativePath, String md5, boolean unchanged) {
+        super(fileRelativePath, md5);
+
+        this.unchanged = unchanged;
+    }
+
+    /**
+     * Returns if the folder of the file didn't change since the last
+     * update, so the file doesn't need to be checked
+     *
+     * @return True if it didn't change
+     */
+    public boolean isUnchanged() {
+        return this.unchanged;
+    }
+
+}
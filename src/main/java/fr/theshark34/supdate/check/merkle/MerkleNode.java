@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check.merkle;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The Merkle Node
+ *
+ * <p>
+ *    A folder of the tree given by the server to the Merkle Check
+ *    Method, with its sub-folders and its files. Its hash is the
+ *    MD5 of the lines "d name hash" of its sub-folders and "f name
+ *    md5" of its files, sorted by name, each one ending with '\n' :
+ *    if a file changes, the hash of all its parent folders changes.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class MerkleNode {
+
+    /**
+     * The name of the folder (empty for the root)
+     */
+    private String name;
+
+    /**
+     * The hash of the folder
+     */
+    private String hash;
+
+    /**
+     * The sub-folders
+     */
+    private List<MerkleNode> children;
+
+    /**
+     * The files
+     */
+    private List<FileEntry> files;
+
+    /**
+     * Returns the name of the folder
+     *
+     * @return The folder name (empty for the root)
+     */
+    public String getName() {
+        return name == null ? "" : name;
+    }
+
+    /**
+     * Returns the hash of the folder
+     *
+     * @return The folder hash
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Returns the sub-folders
+     *
+     * @return The sub-folders list
+     */
+    public List<MerkleNode> getChildren() {
+        return children == null ? Collections.<MerkleNode>emptyList() : children;
+    }
+
+    /**
+     * Returns the files of the folder
+     *
+     * @return The files list
+     */
+    public List<FileEntry> getFiles() {
+        return files == null ? Collections.<FileEntry>emptyList() : files;
+    }
+
+    /**
+     * A file of a folder
+     */
+    public static class FileEntry {
+
+        /**
+         * The name of the file
+         */
+        private String name;
+
+        /**
+         * The file MD5
+         */
+        private String md5;
+
+        /**
+         * Returns the name of the file
+         *
+         * @return The file name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the file MD5
+         *
+         * @return The file MD5
+         */
+        public String getMD5() {
+            return md5;
+        }
+
+    }
+
+}
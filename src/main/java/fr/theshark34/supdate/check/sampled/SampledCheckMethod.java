@@ -0,0 +1,275 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check.sampled;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.List;
+
+import com.google.gson.reflect.TypeToken;
+
+import fr.theshark34.supdate.SUpdate;
+import fr.theshark34.supdate.Updater;
+import fr.theshark34.supdate.check.FileInfos;
+import fr.theshark34.supdate.check.md5.MD5CheckMethod;
+import fr.theshark34.supdate.exception.UnableToCheckException;
+
+import static fr.theshark34.supdate.SUpdate.logger;
+
+/**
+ * The Sampled CheckMethod
+ *
+ * <p>
+ *    A quick check method for the big files : instead of hashing
+ *    all the file, only its size and some samples of it are hashed
+ *    (the head, the tail, and some samples between them). A change
+ *    between the samples is not detected, so every N updates (or
+ *    with SUpdate.setFullCheck) the files are fully hashed, with
+ *    their MD5. The downloaded files are always verified with their
+ *    MD5.
+ * </p>
+ *
+ * <p>
+ *    The sampled MD5 is the MD5 of the file size (8 bytes, big
+ *    endian) followed by the samples : if the file is not bigger
+ *    than sampleSize * sampleCount, the whole file, else sampleCount
+ *    blocks of sampleSize bytes, the sample i starting at the byte
+ *    (size - sampleSize) * i / (sampleCount - 1).
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class SampledCheckMethod extends MD5CheckMethod {
+
+    /**
+     * The name of the file counting the updates, in the output folder
+     */
+    public static final String RUNS_FILE = Updater.STATE_FILE_PREFIX + "sampled-runs";
+
+    /**
+     * The number of updates between two full checks
+     */
+    private int fullCheckInterval;
+
+    /**
+     * If the files are fully hashed during this update
+     */
+    private boolean fullCheck;
+
+    /**
+     * The Sampled CheckMethod, fully hashing the files every 10 updates
+     */
+    public SampledCheckMethod() {
+        this(10);
+    }
+
+    /**
+     * The Sampled CheckMethod
+     *
+     * @param fullCheckInterval
+     *            The number of updates between two full checks, 0 to
+     *            fully hash the files only with SUpdate.setFullCheck
+     */
+    public SampledCheckMethod(int fullCheckInterval) {
+        this.fullCheckInterval = fullCheckInterval;
+    }
+
+    @Override
+    public String getName() {
+        return "sampled-check-method";
+    }
+
+    @Override
+    public Type getListType() {
+        return new TypeToken<List<SampledFileInfos>>(){}.getType();
+    }
+
+    @Override
+    public int getBinaryDigestLength() {
+        // The binary lists only have the MD5, not their samples
+        return 0;
+    }
+
+    @Override
+    public void onFilesChecking(SUpdate sUpdate) {
+        // Counting the updates, to know if this one is a full check
+        int runs = readRuns(sUpdate);
+        fullCheck = sUpdate.isFullCheck() || fullCheckInterval > 0 && runs % fullCheckInterval == 0;
+        writeRuns(sUpdate, runs + 1);
+
+        logger.info(fullCheck ? "Fully hashing the files" : "Hashing samples of the files");
+    }
+
+    @Override
+    public boolean checkFile(SUpdate sUpdate, FileInfos infos) throws UnableToCheckException {
+        if(fullCheck)
+            return super.checkFile(sUpdate, infos);
+
+        SampledFileInfos sampledInfos = (SampledFileInfos) infos;
+
+        // Getting the local file
+        File localFile = new File(sUpdate.getOutputFolder(), infos.getFileRelativePath());
+
+        // If it doesn't exist, or doesn't have the right size
+        if(!localFile.isFile() || localFile.length() != sampledInfos.getSize())
+            return true;
+
+        // Comparing the samples
+        try {
+            return !toHex(digestSamples(localFile, sampledInfos.getSampleSize(), sampledInfos.getSampleCount())).equalsIgnoreCase(sampledInfos.getSampledMD5());
+        } catch (IOException e) {
+            // If it failed, throwing an unable to check exception
+            throw new UnableToCheckException(localFile, e);
+        }
+    }
+
+    /**
+     * Compute the sampled MD5 of a file
+     *
+     * @param file
+     *            The file
+     * @param sampleSize
+     *            The size of each sample
+     * @param sampleCount
+     *            The number of samples (at least 2)
+     * @return The sampled MD5
+     * @throws IOException
+     *            If it failed to read the file
+     */
+    public static byte[] digestSamples(File file, int sampleSize, int sampleCount) throws IOException {
+        if(sampleSize <= 0 || sampleCount < 2)
+            throw new IOException("Invalid sampling of " + file + " : " + sampleCount + " samples of " + sampleSize + " bytes");
+
+        MessageDigest digest = new MD5CheckMethod().createDigest();
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+
+            // The size first
+            digest.update(ByteBuffer.allocate(8).putLong(0, size));
+
+            // Then the samples, or the whole file if it is small
+            if(size <= (long) sampleSize * sampleCount)
+                digest(channel, 0, size, digest);
+            else
+                for(int i = 0; i < sampleCount; i++)
+                    digest(channel, (size - sampleSize) * i / (sampleCount - 1), sampleSize, digest);
+        } finally {
+            input.close();
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * Give a part of a file to a digest
+     *
+     * @param channel
+     *            The file
+     * @param position
+     *            The start of the part
+     * @param length
+     *            The size of the part
+     * @param digest
+     *            The digest
+     * @throws IOException
+     *            If it failed to read the file
+     */
+    private static void digest(FileChannel channel, long position, long length, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, 64 * 1024));
+
+        while(length > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length));
+
+            int read = channel.read(buffer, position);
+            if(read == -1)
+                throw new IOException("The file ended before its size");
+
+            buffer.flip();
+            digest.update(buffer);
+
+            position += read;
+            length -= read;
+        }
+    }
+
+    /**
+     * Read the number of updates done
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @return The number of updates, 0 if unknown
+     */
+    private static int readRuns(SUpdate sUpdate) {
+        File file = new File(sUpdate.getOutputFolder(), RUNS_FILE);
+        if(!file.isFile())
+            return 0;
+
+        try {
+            FileInputStream input = new FileInputStream(file);
+            try {
+                byte[] bytes = new byte[16];
+                int read = input.read(bytes);
+
+                return read > 0 ? Integer.parseInt(new String(bytes, 0, read, "UTF-8").trim()) : 0;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Write the number of updates done
+     *
+     * @param sUpdate
+     *            The current SUpdate instance
+     * @param runs
+     *            The number of updates
+     */
+    private static void writeRuns(SUpdate sUpdate, int runs) {
+        sUpdate.getOutputFolder().mkdirs();
+
+        try {
+            FileOutputStream output = new FileOutputStream(new File(sUpdate.getOutputFolder(), RUNS_FILE));
+            try {
+                output.write(String.valueOf(runs).getBytes("UTF-8"));
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            logger.warning("Unable to save the number of updates. Error : ", e);
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check.sampled;
+
+import fr.theshark34.supdate.check.md5.MD5FileInfos;
+
+/**
+ * The Sampled FileInfos
+ *
+ * <p>
+ *    This is the file info for the Sampled Check Method, containing
+ *    the infos about a file, its name, its MD5, its size, the layout
+ *    of its samples, and the MD5 of its samples (see
+ *    {@link SampledCheckMethod#digestSamples}).
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class SampledFileInfos extends MD5FileInfos {
+
+    /**
+     * The size of each sample
+     */
+    private int sampleSize;
+
+    /**
+     * The number of samples
+     */
+    private int sampleCount;
+
+    /**
+     * The MD5 of the samples
+     */
+    private String sampledMd5;
+
+    /**
+     * The Sampled FileInfos
+     *
+     * @param fileRelativePath
+     *            The relative path of the file
+     * @param md5
+     *            The file MD5
+     * @param size
+     *            The file size
+     * @param sampleSize
+     *            The size of each sample
+     * @param sampleCount
+     *            The number of samples (at least 2, the head and the tail)
+     * @param sampledMd5
+     *            The MD5 of the samples
+     */
+    public SampledFileInfos(String fileRelativePath, String md5, long size, int sampleSize, int sampleCount, String sampledMd5) {
+        super(fileRelativePath, md5, size, null);
+
+        this.sampleSize = sampleSize;
+        this.sampleCount = sampleCount;
+        this.sampledMd5 = sampledMd5;
+    }
+
+    /**
+     * Return the size of each sample
+     *
+     * @return The sample size
+     */
+    public int getSampleSize() {
+        return this.sampleSize;
+    }
+
+    /**
+     * Return the number of samples
+     *
+     * @return The sample count
+     */
+    public int getSampleCount() {
+        return this.sampleCount;
+    }
+
+    /**
+     * Return the MD5 of the samples
+     *
+     * @return The sampled MD5
+     */
+    public String getSampledMD5() {
+        return this.sampledMd5;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(!super.equals(obj))
+            return false;
+
+        SampledFileInfos other = (SampledFileInfos) obj;
+        return sampleSize == other.sampleSize && sampleCount == other.sampleCount && same(sampledMd5, other.sampledMd5);
+    }
+
+}
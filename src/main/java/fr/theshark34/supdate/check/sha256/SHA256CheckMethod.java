@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check.sha256;
+
+import java.lang.reflect.Type;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import com.google.gson.reflect.TypeToken;
+
+import fr.theshark34.supdate.check.HashCheckMethod;
+import fr.theshark34.supdate.check.HashFileInfos;
+
+/**
+ * The SHA-256 CheckMethod
+ *
+ * <p>
+ *    This is the SHA-256 check method, using the SHA-256s to check
+ *    the files. Slower than MD5, but a modified file can't have the
+ *    same hash.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class SHA256CheckMethod extends HashCheckMethod {
+
+    public String getName() {
+        return "sha256-check-method";
+    }
+
+    public Type getListType() {
+        return new TypeToken<List<HashFileInfos>>(){}.getType();
+    }
+
+    @Override
+    public MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check.stat;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import com.google.gson.reflect.TypeToken;
+
+import fr.theshark34.supdate.SUpdate;
+import fr.theshark34.supdate.check.FileInfos;
+import fr.theshark34.supdate.check.md5.MD5CheckMethod;
+import fr.theshark34.supdate.exception.UnableToCheckException;
+
+import static fr.theshark34.supdate.SUpdate.logger;
+
+/**
+ * The Stat CheckMethod
+ *
+ * <p>
+ *    This check method compares the size and the last modification
+ *    time of the files with the ones of the server, without reading
+ *    them. The downloaded files get the modification time of the
+ *    server, so they are up to date on the next update.
+ * </p>
+ *
+ * <p>
+ *    If the size is right but not the time (the file was touched,
+ *    or copied without its time), the time is ambiguous : if the
+ *    server gives the MD5s and the digest fallback is enabled, the
+ *    file is hashed to know if it changed, else it is downloaded.
+ *    The MD5s are also used to verify the downloaded files.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class StatCheckMethod extends MD5CheckMethod {
+
+    /**
+     * The precision of the modification times (FAT keeps them to two seconds)
+     */
+    public static final long MTIME_GRANULARITY = 2000;
+
+    /**
+     * If the files with an ambiguous time are hashed
+     */
+    private boolean digestFallback;
+
+    /**
+     * The Stat CheckMethod, with the digest fallback
+     */
+    public StatCheckMethod() {
+        this(true);
+    }
+
+    /**
+     * The Stat CheckMethod
+     *
+     * @param digestFallback
+     *            True to hash the files with the right size but not
+     *            the right time, false to just download them
+     */
+    public StatCheckMethod(boolean digestFallback) {
+        this.digestFallback = digestFallback;
+    }
+
+    @Override
+    public String getName() {
+        return "stat-check-method";
+    }
+
+    @Override
+    public Type getListType() {
+        return new TypeToken<List<StatFileInfos>>(){}.getType();
+    }
+
+    @Override
+    public int getBinaryDigestLength() {
+        // The binary lists only have the MD5, not their size and modification time
+        return 0;
+    }
+
+    @Override
+    public boolean checkFile(SUpdate sUpdate, FileInfos infos) throws UnableToCheckException {
+        // Getting the file infos
+        StatFileInfos statFileInfos = (StatFileInfos) infos;
+
+        // Getting the local file
+        File localFile = new File(sUpdate.getOutputFolder(), infos.getFileRelativePath());
+
+        // Getting its size and time (0 if it doesn't exist)
+        long lastModified = localFile.lastModified();
+        long size = localFile.length();
+
+        // If the local file doesn't exist, or doesn't have the right size
+        if(lastModified == 0L || size != statFileInfos.getSize())
+            // Returning true
+            return true;
+
+        // If it has the time of the server
+        if(Math.abs(lastModified - statFileInfos.getLastModified()) < MTIME_GRANULARITY)
+            return false;
+
+        // The time is ambiguous, if we can't hash the file downloading it
+        if(!digestFallback || statFileInfos.getMD5() == null)
+            return true;
+
+        try {
+            boolean outdated = !isValid(statFileInfos, digestFile(sUpdate, infos, localFile));
+
+            // If the file is the right one, giving it the time of the server for the next update
+            if(!outdated && !localFile.setLastModified(statFileInfos.getLastModified()))
+                logger.info("Unable to set the modification time of %s", localFile.getAbsolutePath());
+
+            return outdated;
+        } catch (IOException e) {
+            // If it failed, throwing an unable to check exception
+            throw new UnableToCheckException(localFile, e);
+        }
+    }
+
+    @Override
+    public boolean isValid(FileInfos infos, byte[] digest) {
+        // Without MD5, the file can't be verified
+        return ((StatFileInfos) infos).getMD5() == null || super.isValid(infos, digest);
+    }
+
+    @Override
+    public void onFileDownloaded(FileInfos infos, File file) {
+        // Giving it the time of the server, so it is up to date on the next update
+        if(!file.setLastModified(((StatFileInfos) infos).getLastModified()))
+            logger.info("Unable to set the modification time of %s", file.getAbsolutePath());
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check.stat;
+
+import fr.theshark34.supdate.check.md5.MD5FileInfos;
+
+/**
+ * The Stat FileInfos
+ *
+ * <p>
+ *    This is the file info for the Stat Check Method, containing
+ *    the infos about a file, its name, its size, its last
+ *    modification time, and optionally its MD5.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class StatFileInfos extends MD5FileInfos {
+
+    /**
+     * The last modification time of the file on the server
+     * (in milliseconds since the epoch)
+     */
+    private long lastModified;
+
+    /**
+     * The Stat FileInfos
+     *
+     * @param fileRelativePath
+     *            The relative path of the file
+     * @param size
+     *            The file size
+     * @param lastModified
+     *            The last modification time of the file
+     * @param md5
+     *            The file MD5, or null if the server doesn't give it
+     */
+    public StatFileInfos(String fileRelativePath, long size, long lastModified, String md5) {
+        super(fileRelativePath, md5, size, null);
+
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Return the last modification time of the file on the server
+     *
+     * @return The last modification time (in milliseconds since the epoch)
+     */
+    public long getLastModified() {
+        return this.lastModified;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return super.equals(obj) && lastModified == ((StatFileInfos) obj).lastModified;
+    }
+
+}
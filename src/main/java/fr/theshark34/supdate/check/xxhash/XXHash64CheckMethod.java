@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check.xxhash;
+
+import java.lang.reflect.Type;
+import java.security.MessageDigest;
+import java.util.List;
+
+import com.google.gson.reflect.TypeToken;
+
+import fr.theshark34.supdate.check.HashCheckMethod;
+import fr.theshark34.supdate.check.HashFileInfos;
+
+/**
+ * The xxHash64 CheckMethod
+ *
+ * <p>
+ *    This is the xxHash64 check method, using the xxHash64s (with
+ *    a seed of 0) to check the files. Much faster than MD5, it is
+ *    made to detect the corrupted or outdated files, not the files
+ *    modified on purpose.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class XXHash64CheckMethod extends HashCheckMethod {
+
+    public String getName() {
+        return "xxhash64-check-method";
+    }
+
+    public Type getListType() {
+        return new TypeToken<List<HashFileInfos>>(){}.getType();
+    }
+
+    @Override
+    public MessageDigest createDigest() {
+        return new XXHash64Digest();
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check.xxhash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * The xxHash64 Digest
+ *
+ * <p>
+ *    A MessageDigest computing the xxHash64 of the given bytes,
+ *    with a seed of 0. The hash is given in big endian, like the
+ *    reference implementation prints it.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class XXHash64Digest extends MessageDigest {
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    /**
+     * The four accumulators
+     */
+    private long v1, v2, v3, v4;
+
+    /**
+     * The bytes not hashed yet (less than a 32 bytes stripe)
+     */
+    private byte[] buffer = new byte[32];
+
+    /**
+     * The number of bytes in the buffer
+     */
+    private int buffered;
+
+    /**
+     * The total number of bytes given
+     */
+    private long length;
+
+    /**
+     * The xxHash64 Digest
+     */
+    public XXHash64Digest() {
+        super("xxHash64");
+
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 8;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        buffer[buffered++] = input;
+        length++;
+
+        if(buffered == 32) {
+            stripe(buffer, 0);
+            buffered = 0;
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        length += len;
+
+        // Filling the buffer first
+        if(buffered > 0) {
+            int copied = Math.min(32 - buffered, len);
+            System.arraycopy(input, offset, buffer, buffered, copied);
+            buffered += copied;
+            offset += copied;
+            len -= copied;
+
+            if(buffered < 32)
+                return;
+
+            stripe(buffer, 0);
+            buffered = 0;
+        }
+
+        // Hashing the stripes directly from the input
+        int end = offset + len;
+        for(; offset + 32 <= end; offset += 32)
+            stripe(input, offset);
+
+        // Keeping the rest for later
+        buffered = end - offset;
+        System.arraycopy(input, offset, buffer, 0, buffered);
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        // The arrays are given to the other engineUpdate
+        if(input.hasArray()) {
+            super.engineUpdate(input);
+            return;
+        }
+
+        // Reading the longs directly from the (direct) buffer
+        ByteOrder order = input.order();
+        input.order(ByteOrder.LITTLE_ENDIAN);
+
+        // Filling the buffer first
+        while(buffered > 0 && input.hasRemaining())
+            engineUpdate(input.get());
+
+        // Hashing the stripes
+        while(input.remaining() >= 32) {
+            v1 = round(v1, input.getLong());
+            v2 = round(v2, input.getLong());
+            v3 = round(v3, input.getLong());
+            v4 = round(v4, input.getLong());
+            length += 32;
+        }
+
+        // Keeping the rest for later
+        while(input.hasRemaining())
+            engineUpdate(input.get());
+
+        input.order(order);
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        long hash;
+
+        if(length >= 32) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = merge(hash, v1);
+            hash = merge(hash, v2);
+            hash = merge(hash, v3);
+            hash = merge(hash, v4);
+        } else
+            hash = PRIME5;
+
+        hash += length;
+
+        // Hashing the rest of the bytes
+        int i = 0;
+        for(; i + 8 <= buffered; i += 8) {
+            hash ^= round(0, readLong(buffer, i));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+
+        if(i + 4 <= buffered) {
+            hash ^= (readInt(buffer, i) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            i += 4;
+        }
+
+        for(; i < buffered; i++) {
+            hash ^= (buffer[i] & 0xFF) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+
+        // Mixing the bits
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+
+        engineReset();
+
+        byte[] digest = new byte[8];
+        for(int b = 0; b < 8; b++)
+            digest[b] = (byte) (hash >>> (56 - b * 8));
+
+        return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        buffered = 0;
+        length = 0;
+    }
+
+    /**
+     * Hash a 32 bytes stripe
+     *
+     * @param input
+     *            The bytes
+     * @param offset
+     *            The offset of the stripe
+     */
+    private void stripe(byte[] input, int offset) {
+        v1 = round(v1, readLong(input, offset));
+        v2 = round(v2, readLong(input, offset + 8));
+        v3 = round(v3, readLong(input, offset + 16));
+        v4 = round(v4, readLong(input, offset + 24));
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long merge(long hash, long acc) {
+        return (hash ^ round(0, acc)) * PRIME1 + PRIME4;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFFL)
+                | (bytes[offset + 1] & 0xFFL) << 8
+                | (bytes[offset + 2] & 0xFFL) << 16
+                | (bytes[offset + 3] & 0xFFL) << 24
+                | (bytes[offset + 4] & 0xFFL) << 32
+                | (bytes[offset + 5] & 0xFFL) << 40
+                | (bytes[offset + 6] & 0xFFL) << 48
+                | (bytes[offset + 7] & 0xFFL) << 56;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+                | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16
+                | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+}
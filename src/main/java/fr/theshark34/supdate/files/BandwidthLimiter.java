@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.files;
+
+import java.io.InterruptedIOException;
+
+/**
+ * The Bandwidth Limiter
+ *
+ * <p>
+ *     A token bucket shared by all the download tasks, limiting
+ *     the total download speed. Its rate can be changed at any time,
+ *     even during the downloads.
+ * </p>
+ *
+ * <p>
+ *     The bucket holds at most 100 milliseconds of tokens, and the
+ *     tasks read chunks of at most 50 milliseconds of bytes, so the
+ *     speed stays smooth. A task taking more bytes than available
+ *     goes in debt and sleeps (outside of the lock) until its bytes
+ *     are paid, so the waiting tasks are served in order.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class BandwidthLimiter {
+
+    /**
+     * The smallest chunk size given to the tasks
+     */
+    private static final int MIN_CHUNK = 1024;
+
+    /**
+     * The rate (in bytes per second), 0 for no limit
+     */
+    private volatile long rate;
+
+    /**
+     * The available bytes, negative if the tasks are in debt
+     */
+    private double tokens;
+
+    /**
+     * The last time the tokens were added
+     */
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Sets the maximum download speed
+     *
+     * @param rate
+     *            The rate (in bytes per second), 0 for no limit
+     */
+    public synchronized void setRate(long rate) {
+        if(rate < 0)
+            throw new IllegalArgumentException("The rate can't be negative");
+
+        this.rate = rate;
+        this.tokens = 0;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Returns the maximum download speed
+     *
+     * @return The rate (in bytes per second), 0 for no limit
+     */
+    public long getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns if the download speed is limited
+     *
+     * @return True if there is a rate
+     */
+    public boolean isEnabled() {
+        return rate > 0;
+    }
+
+    /**
+     * Returns the number of bytes a task should read at once
+     *
+     * @param bufferSize
+     *            The size of the task buffer
+     * @return The chunk size, 50 milliseconds of bytes if there is a limit
+     */
+    public int getChunkSize(int bufferSize) {
+        long currentRate = rate;
+        if(currentRate <= 0)
+            return bufferSize;
+
+        return (int) Math.max(MIN_CHUNK, Math.min(bufferSize, currentRate / 20));
+    }
+
+    /**
+     * Take bytes from the bucket, waiting if there isn't enough
+     *
+     * @param bytes
+     *            The number of bytes read
+     * @throws InterruptedIOException
+     *            If the task was interrupted while waiting
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        // Without limit, not taking the lock shared by all the tasks
+        if(rate <= 0)
+            return;
+
+        long wait;
+
+        synchronized (this) {
+            // The limit could have been removed since
+            if(rate <= 0)
+                return;
+
+            // Adding the tokens since the last time, up to 100 milliseconds of them
+            long now = System.nanoTime();
+            tokens = Math.min(rate / 10D, tokens + (now - lastRefill) * rate / 1000000000D);
+            lastRefill = now;
+
+            // Taking the bytes, and computing the time to pay the debt
+            tokens -= bytes;
+            wait = tokens < 0 ? (long) (-tokens * 1000000000D / rate) : 0;
+        }
+
+        if(wait > 0)
+            try {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for the bandwidth limiter");
+            }
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.files;
+
+import java.util.List;
+
+/**
+ * The Block Signature
+ *
+ * <p>
+ *     The signature of a file given by the server in the file list,
+ *     to download only the blocks that changed : the file is split
+ *     into blocks of blockSize bytes (the last one can be smaller),
+ *     and for each block the server gives its weak checksum (see
+ *     {@link RollingChecksum}) and its strong one (its MD5, in
+ *     hexadecimal).
+ * </p>
+ *
+ * <p>
+ *     The weak checksum is the 32 bits value {@code a | (b << 16)}, it can be
+ *     written as a signed (like a Java int) or as an unsigned number.
+ *     The server can also give the validator (strong ETag or
+ *     Last-Modified date) of the version of the file the signature
+ *     was made from, sent in the If-Range header of the Range
+ *     requests, so the missing blocks can't come from another version.
+ * </p>
+ *
+ * <pre>
+ * "blocks": { "size": 5000000, "blockSize": 1048576, "weak": [ 12345, ... ], "strong": [ "9e107d9d...", ... ], "validator": "\"5d41402a\"" }
+ * </pre>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class BlockSignature {
+
+    /**
+     * The size of the file
+     */
+    private long size;
+
+    /**
+     * The size of the blocks
+     */
+    private int blockSize;
+
+    /**
+     * The weak checksum of each block
+     */
+    private List<Long> weak;
+
+    /**
+     * The MD5 of each block
+     */
+    private List<String> strong;
+
+    /**
+     * The validator of the version of the file, if the server gives it
+     */
+    private String validator;
+
+    /**
+     * The Block Signature
+     *
+     * @param size
+     *            The size of the file
+     * @param blockSize
+     *            The size of the blocks
+     * @param weak
+     *            The weak checksum of each block
+     * @param strong
+     *            The MD5 of each block
+     */
+    public BlockSignature(long size, int blockSize, List<Long> weak, List<String> strong) {
+        this.size = size;
+        this.blockSize = blockSize;
+        this.weak = weak;
+        this.strong = strong;
+    }
+
+    /**
+     * Returns the size of the file
+     *
+     * @return The file size
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the size of a block (the last one can be smaller)
+     *
+     * @param block
+     *            The index of the block
+     * @return Its size
+     */
+    public int getBlockSize(int block) {
+        return (int) Math.min(blockSize, size - (long) block * blockSize);
+    }
+
+    /**
+     * Returns the size of the blocks
+     *
+     * @return The block size
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the number of blocks
+     *
+     * @return The block count
+     */
+    public int getBlockCount() {
+        return weak.size();
+    }
+
+    /**
+     * Returns the weak checksum of a block
+     *
+     * @param block
+     *            The index of the block
+     * @return Its weak checksum
+     */
+    public int getWeak(int block) {
+        // Keeping the 32 low bits, the same for the signed and unsigned values
+        return (int) weak.get(block).longValue();
+    }
+
+    /**
+     * Returns the MD5 of a block
+     *
+     * @param block
+     *            The index of the block
+     * @return Its MD5, in hexadecimal
+     */
+    public String getStrong(int block) {
+        return strong.get(block);
+    }
+
+    /**
+     * Returns the validator of the version of the file the signature
+     * was made from
+     *
+     * @return The validator for the If-Range header, or null if the server didn't give it
+     */
+    public String getValidator() {
+        return validator;
+    }
+
+    /**
+     * Returns if the signature can be used
+     *
+     * @return True if it has a checksum of each type for each block
+     */
+    public boolean isValid() {
+        return blockSize > 0 && weak != null && strong != null && weak.size() == strong.size() && weak.size() == (size + blockSize - 1) / blockSize;
+    }
+
+}
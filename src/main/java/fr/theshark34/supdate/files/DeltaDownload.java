@@ -0,0 +1,474 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.theshark34.supdate.BarAPI;
+import fr.theshark34.supdate.check.HashCheckMethod;
+import fr.theshark34.supdate.http.HttpResponse;
+import fr.theshark34.supdate.http.HttpTransport;
+
+/**
+ * The Delta Download
+ *
+ * <p>
+ *     Downloads only the changed blocks of a big file, like rsync :
+ *     the old version of the file is scanned with a rolling checksum
+ *     to find the blocks of the new version it still contains (even
+ *     if they moved), then the '.part' file is assembled with these
+ *     blocks, and the missing ones are asked with Range requests.
+ * </p>
+ *
+ * <p>
+ *     The blocks are found with their weak checksum, then confirmed
+ *     with their MD5. The whole file is then verified by the download
+ *     task, like a normal download, before replacing the old one.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class DeltaDownload {
+
+    /**
+     * The minimum size of the scan buffer
+     */
+    private static final int MIN_SCAN_BUFFER = 1024 * 1024;
+
+    /**
+     * The transport sending the requests
+     */
+    private HttpTransport transport;
+
+    /**
+     * The bandwidth limiter of the download
+     */
+    private BandwidthLimiter limiter;
+
+    /**
+     * The URL of the file to download
+     */
+    private URL fileUrl;
+
+    /**
+     * The old version of the file
+     */
+    private File local;
+
+    /**
+     * The file where the new version is assembled
+     */
+    private File part;
+
+    /**
+     * The signature of the new version
+     */
+    private BlockSignature signature;
+
+    /**
+     * The validator sent in the If-Range header of the Range requests :
+     * the one of the signature, else the one of the first response
+     */
+    private String validator;
+
+    /**
+     * The number of bytes taken from the old version
+     */
+    private long reused;
+
+    /**
+     * The number of bytes added to the BarAPI downloaded bytes
+     */
+    private long added;
+
+    /**
+     * The Delta Download
+     *
+     * @param transport
+     *            The transport sending the requests
+     * @param limiter
+     *            The bandwidth limiter of the download
+     * @param fileUrl
+     *            The URL of the file to download
+     * @param local
+     *            The old version of the file
+     * @param part
+     *            The file where the new version is assembled
+     * @param signature
+     *            The signature of the new version
+     */
+    public DeltaDownload(HttpTransport transport, BandwidthLimiter limiter, URL fileUrl, File local, File part, BlockSignature signature) {
+        this.transport = transport;
+        this.limiter = limiter;
+        this.fileUrl = fileUrl;
+        this.local = local;
+        this.part = part;
+        this.signature = signature;
+        this.validator = signature.getValidator();
+    }
+
+    /**
+     * Assemble the new version of the file in the '.part' file
+     *
+     * @return The number of downloaded bytes, or -1 if the old
+     *         version has no block of the new one (nothing was done)
+     * @throws IOException
+     *            If it failed to read the old version, or to download
+     *            the missing blocks
+     */
+    public long download() throws IOException {
+        // Finding the blocks in the old version
+        long[] sources = findBlocks();
+
+        int blocks = signature.getBlockCount();
+        int found = 0;
+        for(long source : sources)
+            if(source >= 0)
+                found++;
+
+        if(found == 0)
+            return -1;
+
+        long received = 0;
+        RandomAccessFile output = new RandomAccessFile(part, "rw");
+        FileInputStream input = new FileInputStream(local);
+
+        try {
+            output.setLength(signature.getSize());
+
+            FileChannel partChannel = output.getChannel();
+            FileChannel localChannel = input.getChannel();
+
+            for(int block = 0; block < blocks; ) {
+                long position = (long) block * signature.getBlockSize();
+
+                if(sources[block] >= 0) {
+                    // Copying the block from the old version
+                    int length = signature.getBlockSize(block);
+                    copy(localChannel, sources[block], partChannel, position, length);
+
+                    // Its bytes are counted as downloaded, so the BarAPI still reaches the total
+                    BarAPI.addNumberOfTotalDownloadedBytes(length);
+                    added += length;
+                    reused += length;
+
+                    block++;
+                } else {
+                    // Downloading all the following missing blocks with one request
+                    int end = block;
+                    while(end < blocks && sources[end] < 0)
+                        end++;
+
+                    long length = Math.min((long) end * signature.getBlockSize(), signature.getSize()) - position;
+                    fetch(partChannel, position, length);
+                    received += length;
+
+                    block = end;
+                }
+            }
+        } catch (IOException e) {
+            // The file will be downloaded again, so its bytes are not counted anymore
+            BarAPI.addNumberOfTotalDownloadedBytes(-added);
+
+            throw e;
+        } finally {
+            DownloadTask.closeQuietly(input);
+            output.close();
+        }
+
+        return received;
+    }
+
+    /**
+     * Find the blocks of the new version in the old one
+     *
+     * @return The position of each block in the old version, -1 for
+     *         the blocks that aren't in it
+     * @throws IOException
+     *            If it failed to read the old version
+     */
+    private long[] findBlocks() throws IOException {
+        int blockSize = signature.getBlockSize();
+        long[] sources = new long[signature.getBlockCount()];
+        Arrays.fill(sources, -1);
+
+        // Indexing the full blocks by their weak checksum (the last one, if smaller, is always downloaded)
+        Map<Integer, List<Integer>> blocksByWeak = new HashMap<Integer, List<Integer>>();
+        for(int block = 0; block < sources.length; block++)
+            if(signature.getBlockSize(block) == blockSize) {
+                List<Integer> list = blocksByWeak.get(signature.getWeak(block));
+                if(list == null)
+                    blocksByWeak.put(signature.getWeak(block), list = new ArrayList<Integer>(1));
+
+                list.add(block);
+            }
+
+        if(blocksByWeak.isEmpty())
+            return sources;
+
+        MessageDigest md5 = createMD5();
+        RollingChecksum checksum = new RollingChecksum(blockSize);
+        InputStream input = new FileInputStream(local);
+
+        try {
+            Window window = new Window(input, new byte[Math.max(blockSize * 2, MIN_SCAN_BUFFER)]);
+
+            if(!window.ensure(blockSize))
+                return sources;
+
+            checksum.reset(window.buffer, window.position);
+
+            while(true) {
+                boolean matched = false;
+                List<Integer> candidates = blocksByWeak.get(checksum.getValue());
+
+                // If the weak checksum matches, confirming with the MD5
+                if(candidates != null) {
+                    String strong = null;
+
+                    for(int block : candidates)
+                        if(sources[block] < 0) {
+                            if(strong == null) {
+                                md5.update(window.buffer, window.position, blockSize);
+                                strong = HashCheckMethod.toHex(md5.digest());
+                            }
+
+                            if(strong.equalsIgnoreCase(signature.getStrong(block))) {
+                                sources[block] = window.offset + window.position;
+                                matched = true;
+                            }
+                        }
+                }
+
+                if(matched) {
+                    // Skipping the block
+                    window.position += blockSize;
+
+                    if(!window.ensure(blockSize))
+                        break;
+
+                    checksum.reset(window.buffer, window.position);
+                } else {
+                    // Moving of one byte
+                    if(!window.ensure(blockSize + 1))
+                        break;
+
+                    checksum.roll(window.buffer[window.position], window.buffer[window.position + blockSize]);
+                    window.position++;
+                }
+            }
+        } finally {
+            input.close();
+        }
+
+        return sources;
+    }
+
+    /**
+     * Copy a block of the old version to the '.part' file
+     *
+     * @param from
+     *            The old version
+     * @param source
+     *            The position of the block in the old version
+     * @param to
+     *            The '.part' file
+     * @param position
+     *            The position of the block in the new version
+     * @param length
+     *            The size of the block
+     * @throws IOException
+     *            If it failed to copy the block
+     */
+    private static void copy(FileChannel from, long source, FileChannel to, long position, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, 64 * 1024));
+
+        while(length > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length));
+
+            int read = from.read(buffer, source);
+            if(read == -1)
+                throw new IOException("The local file is shorter than expected");
+
+            buffer.flip();
+            while(buffer.hasRemaining())
+                position += to.write(buffer, position);
+
+            source += read;
+            length -= read;
+        }
+    }
+
+    /**
+     * Download a range of the file to the '.part' file
+     *
+     * @param channel
+     *            The '.part' file
+     * @param position
+     *            The start of the range
+     * @param length
+     *            The size of the range
+     * @throws IOException
+     *            If it failed to download the range
+     */
+    private void fetch(FileChannel channel, long position, long length) throws IOException {
+        // If the file changed since the signature (or the first range), the server sends the whole file
+        HttpResponse response = DownloadTask.sendRequest(transport, fileUrl, position, position + length - 1, validator, false);
+
+        try {
+            if(response.getCode() != HttpURLConnection.HTTP_PARTIAL || DownloadTask.getRangeStart(response) != position)
+                throw new IOException("The server didn't send the range " + position + "-" + (position + length - 1) + " of " + fileUrl + " (response code " + response.getCode() + ")");
+
+            // Asking the next ranges from the same version of the file
+            if(validator == null)
+                validator = PartialDownload.fromResponse(fileUrl.toString(), response, signature.getSize()).getValidator();
+
+            InputStream input = response.getBody();
+            byte[] buffer = new byte[DownloadTask.BUFFER_SIZE];
+            long remaining = length;
+
+            while(remaining > 0) {
+                int read = input.read(buffer, 0, (int) Math.min(limiter.getChunkSize(buffer.length), remaining));
+                if(read == -1)
+                    throw new IOException("Received " + (length - remaining) + " bytes of " + length);
+
+                limiter.acquire(read);
+
+                // Writing the chunk at its position
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while(chunk.hasRemaining())
+                    position += channel.write(chunk, position);
+
+                remaining -= read;
+
+                BarAPI.addNumberOfTotalDownloadedBytes(read);
+                added += read;
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Returns the number of bytes taken from the old version
+     *
+     * @return The reused bytes
+     */
+    public long getReusedBytes() {
+        return reused;
+    }
+
+    /**
+     * Create a MD5 digest
+     *
+     * @return The digest
+     */
+    private static MessageDigest createMD5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A window moving on a stream, keeping the bytes after its
+     * position in a buffer
+     */
+    private static class Window {
+
+        /**
+         * The stream
+         */
+        private final InputStream input;
+
+        /**
+         * The buffer
+         */
+        private final byte[] buffer;
+
+        /**
+         * The position of the window in the buffer
+         */
+        private int position;
+
+        /**
+         * The end of the bytes in the buffer
+         */
+        private int end;
+
+        /**
+         * The position of the buffer in the stream
+         */
+        private long offset;
+
+        Window(InputStream input, byte[] buffer) {
+            this.input = input;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Make sure the buffer has some bytes after the position,
+         * reading more if needed
+         *
+         * @param length
+         *            The number of needed bytes
+         * @return False if the stream ended before
+         * @throws IOException
+         *            If it failed to read the stream
+         */
+        boolean ensure(int length) throws IOException {
+            if(position + length <= end)
+                return true;
+
+            // Moving the remaining bytes to the start of the buffer
+            System.arraycopy(buffer, position, buffer, 0, end - position);
+            offset += position;
+            end -= position;
+            position = 0;
+
+            // Reading until the buffer is full
+            int read;
+            while(end < buffer.length && (read = input.read(buffer, end, buffer.length - end)) != -1)
+                end += read;
+
+            return length <= end;
+        }
+
+    }
+
+}
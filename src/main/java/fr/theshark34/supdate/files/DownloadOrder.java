@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.files;
+
+import java.util.Comparator;
+
+/**
+ * The Download Order
+ *
+ * <p>
+ *     The Download Order decides which queued file the FileManager
+ *     downloads first. The queue is a priority queue sorted with it,
+ *     so the order doesn't depend on the order of the download calls.
+ * </p>
+ *
+ * <p>
+ *     The files with the same rank (and the files with an unknown
+ *     size when sorting by size) are downloaded in the order they
+ *     were queued. To create your own order, override the
+ *     {@link #compareTasks(DownloadTask, DownloadTask)} method.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public abstract class DownloadOrder implements Comparator<DownloadTask> {
+
+    /**
+     * The files are downloaded in the order they were queued
+     */
+    public static final DownloadOrder SUBMISSION = new DownloadOrder() {
+        @Override
+        protected int compareTasks(DownloadTask first, DownloadTask second) {
+            return 0;
+        }
+    };
+
+    /**
+     * The biggest files are downloaded first, so a big file doesn't
+     * finish alone at the end of the update
+     */
+    public static final DownloadOrder LARGEST_FIRST = new DownloadOrder() {
+        @Override
+        protected int compareTasks(DownloadTask first, DownloadTask second) {
+            return compareSizes(first.getSize(), second.getSize(), true);
+        }
+    };
+
+    /**
+     * The smallest files are downloaded first, to have the most
+     * downloaded files as fast as possible
+     */
+    public static final DownloadOrder SMALLEST_FIRST = new DownloadOrder() {
+        @Override
+        protected int compareTasks(DownloadTask first, DownloadTask second) {
+            return compareSizes(first.getSize(), second.getSize(), false);
+        }
+    };
+
+    /**
+     * The files with the highest priority (given to the
+     * FileManager download method) are downloaded first
+     */
+    public static final DownloadOrder PRIORITY = new DownloadOrder() {
+        @Override
+        protected int compareTasks(DownloadTask first, DownloadTask second) {
+            return first.getPriority() > second.getPriority() ? -1 : (first.getPriority() < second.getPriority() ? 1 : 0);
+        }
+    };
+
+    /**
+     * Compare two tasks
+     *
+     * @param first
+     *            The first task
+     * @param second
+     *            The second task
+     * @return A negative number if the first task must be downloaded
+     *         before the second, a positive one if after, or 0 to use
+     *         the queue order
+     */
+    protected abstract int compareTasks(DownloadTask first, DownloadTask second);
+
+    @Override
+    public final int compare(DownloadTask first, DownloadTask second) {
+        int result = compareTasks(first, second);
+
+        // If they have the same rank, using the queue order
+        if(result == 0)
+            result = first.getSequence() < second.getSequence() ? -1 : (first.getSequence() > second.getSequence() ? 1 : 0);
+
+        return result;
+    }
+
+    /**
+     * Compare two sizes, the unknown sizes (-1) being after all the
+     * known sizes
+     *
+     * @param first
+     *            The first size
+     * @param second
+     *            The second size
+     * @param largestFirst
+     *            True to put the biggest size first, false for the smallest
+     * @return The result of the comparison
+     */
+    private static int compareSizes(long first, long second, boolean largestFirst) {
+        // The unknown sizes are always at the end
+        if(first < 0 || second < 0)
+            return first < 0 ? (second < 0 ? 0 : 1) : -1;
+
+        int result = first < second ? -1 : (first > second ? 1 : 0);
+
+        return largestFirst ? -result : result;
+    }
+
+}
@@ -18,14 +18,29 @@
  */
 package fr.theshark34.supdate.files;
 
-import java.io.DataInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.zip.GZIPInputStream;
 
 import fr.theshark34.supdate.BarAPI;
+import fr.theshark34.supdate.check.FileHasher;
+import fr.theshark34.supdate.check.FileInfos;
+import fr.theshark34.supdate.check.HashIndex;
+import fr.theshark34.supdate.exception.CorruptedFileException;
+import fr.theshark34.supdate.exception.FileNoPermissionException;
+import fr.theshark34.supdate.http.HttpRequest;
+import fr.theshark34.supdate.http.HttpResponse;
+import fr.theshark34.supdate.http.HttpTransport;
+import fr.theshark34.supdate.http.PooledHttpTransport;
 
 import static fr.theshark34.supdate.SUpdate.logger;
 
@@ -37,11 +52,62 @@ import static fr.theshark34.supdate.SUpdate.logger;
  *     A Task that downloads a file to a destination.
  * </p>
  *
- * @version 3.0.0-BETA
+ * <p>
+ *     The file is streamed from the connection to the disk through
+ *     a buffer reused by each pool thread, so the memory used doesn't
+ *     depend on the size of the downloaded files.
+ * </p>
+ *
+ * <p>
+ *     The bytes are written to a '.part' file, renamed to the destination
+ *     when the download is complete. If the download is interrupted, the
+ *     next one resumes it with a Range request (see {@link PartialDownload}).
+ *     If the segmented download is enabled in the {@link FileManager}, the
+ *     big files are downloaded with multiple connections (see
+ *     {@link SegmentedDownload}).
+ * </p>
+ *
+ * <p>
+ *     If the task has the server infos of the file, the downloaded bytes
+ *     are given to the digest of the check method, and the file is
+ *     downloaded again if it doesn't match.
+ * </p>
+ *
+ * @version 3.1.0-BETA
  * @author TheShark34
  */
 public class DownloadTask implements Runnable {
 
+    /**
+     * The size of the buffer used to transfer the files
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The transfer buffers, one per download thread
+     */
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * The transport used by the tasks created without a file manager
+     */
+    private static final HttpTransport DEFAULT_TRANSPORT = new PooledHttpTransport();
+
+    /**
+     * The limiter used by the tasks created without a file manager
+     */
+    private static final BandwidthLimiter NO_LIMIT = new BandwidthLimiter();
+
+    /**
+     * The file manager that created this task, can be null
+     */
+    private FileManager manager;
+
     /**
      * The URL of the file to download
      */
@@ -52,6 +118,53 @@ public class DownloadTask implements Runnable {
      */
     private File dest;
 
+    /**
+     * The server infos of the file, used to verify it, can be null
+     */
+    private FileInfos infos;
+
+    /**
+     * The expected size of the file, or -1 if unknown
+     */
+    private long size = -1;
+
+    /**
+     * The size of the file already counted in the BarAPI total bytes
+     * to download
+     */
+    private long countedSize = 0;
+
+    /**
+     * The priority of the file, used by {@link DownloadOrder#PRIORITY}
+     */
+    private int priority;
+
+    /**
+     * The queue number of this task, given by the file manager
+     */
+    private long sequence;
+
+    /**
+     * The digest fed with the downloaded bytes, null if the file isn't verified
+     */
+    private MessageDigest digest;
+
+    /**
+     * The number of bytes downloaded by this task
+     */
+    private long downloadedBytes;
+
+    /**
+     * The time between the request and the response headers (in nanoseconds),
+     * -1 if it wasn't measured (delta download, or failed before the headers)
+     */
+    private long latency = -1;
+
+    /**
+     * If the delta download failed, so the next tries download the whole file
+     */
+    private boolean deltaFailed;
+
     /**
      * Simple constructor
      *
@@ -61,10 +174,55 @@ public class DownloadTask implements Runnable {
      *            The destination file
      */
     public DownloadTask(URL fileUrl, File dest) {
+        this(null, fileUrl, dest);
+    }
+
+    /**
+     * Constructor used by the file manager, to use its
+     * download settings
+     *
+     * @param manager
+     *            The file manager that created this task
+     * @param fileUrl
+     *            The URL of the file to download
+     * @param dest
+     *            The destination file
+     */
+    public DownloadTask(FileManager manager, URL fileUrl, File dest) {
+        this.manager = manager;
         this.fileUrl = fileUrl;
         this.dest = dest;
     }
 
+    /**
+     * Constructor used by the file manager, with the informations
+     * used to sort its queue
+     *
+     * @param manager
+     *            The file manager that created this task
+     * @param fileUrl
+     *            The URL of the file to download
+     * @param dest
+     *            The destination file
+     * @param infos
+     *            The server infos of the file, to verify it with the
+     *            check method, can be null
+     * @param size
+     *            The expected size of the file, or -1 if unknown
+     * @param priority
+     *            The priority of the file
+     * @param sequence
+     *            The queue number of this task
+     */
+    public DownloadTask(FileManager manager, URL fileUrl, File dest, FileInfos infos, long size, int priority, long sequence) {
+        this(manager, fileUrl, dest);
+
+        this.infos = infos;
+        this.size = size;
+        this.priority = priority;
+        this.sequence = sequence;
+    }
+
     @Override
     public void run() {
         // Making the parent folders of the destination file
@@ -73,40 +231,557 @@ public class DownloadTask implements Runnable {
         // Printing a message
         logger.info("Downloading file %s", fileUrl);
 
+        boolean success = false;
+        int tries = manager != null ? manager.getMaxRetries() + 1 : 1;
+
         try {
-            // Creating the connection
-            HttpURLConnection connection = (HttpURLConnection) fileUrl.openConnection();
+            // Downloading the file, again if it was corrupted
+            for(int i = 1; !success; i++)
+                try {
+                    download();
+                    success = true;
+                } catch (CorruptedFileException e) {
+                    if(i >= tries)
+                        throw e;
 
-            // Adding some user agents
-            connection.addRequestProperty("User-Agent", "Mozilla/5.0 AppleWebKit/537.36 (KHTML, like Gecko) Chrome/43.0.2357.124 Safari/537.36");
+                    logger.info("File %s is corrupted, downloading it again", fileUrl);
+                }
 
-            // Creating the data input stream
-            DataInputStream dis = new DataInputStream(connection.getInputStream());
+            // Incrementing the BarAPI 'numberOfDownloadedFiles' variable
+            BarAPI.incrementNumberOfDownloadedFiles();
+        } catch (IOException e) {
+            // If it failed printing a warning message
+            logger.warning("File " + fileUrl + " wasn't downloaded, error: ", e);
 
-            // Transfering
-            byte[] fileData = new byte[connection.getContentLength()];
-            
-            int x;
-            for (x = 0; x < fileData.length; x++)  {
-                BarAPI.incrementNumberOfTotalDownloadedBytes();
-                fileData[x] = dis.readByte();
+            // If the download can't be resumed, removing the incomplete file
+            if(!PartialDownload.getStateFile(dest).isFile())
+                PartialDownload.delete(dest);
+        } finally {
+            // Giving the measures of the download to the manager
+            if(manager != null)
+                manager.onDownloadFinished(downloadedBytes, latency, success);
+        }
+    }
+
+    /**
+     * Download the file to its '.part' file, resuming the previous
+     * try if it is possible, then rename it to the destination
+     *
+     * @throws IOException
+     *            If it failed to download the file
+     */
+    private void download() throws IOException {
+        File part = PartialDownload.getPartFile(dest);
+        String url = fileUrl.toString();
+
+        // Loading the state of the previous try, and checking if it can be resumed
+        PartialDownload state = PartialDownload.load(dest);
+        long offset = 0;
+
+        if(state != null && state.canResume(url) && part.isFile())
+            offset = part.length();
+        else
+            PartialDownload.delete(dest);
+
+        // Creating the digest to verify the file
+        digest = infos != null && manager != null ? manager.getCheckMethod().createDigest() : null;
+
+        // If there is an old version of the file, trying to download only its changed blocks
+        if(offset == 0 && isDeltaPossible()) {
+            DeltaDownload delta = new DeltaDownload(getTransport(), getBandwidthLimiter(), fileUrl, dest, part, infos.getBlockSignature());
+
+            // The reused blocks are counted as downloaded, so the whole file is counted in the total
+            countSize(infos.getBlockSignature().getSize());
+            long received = -1;
+
+            try {
+                received = delta.download();
+            } catch (IOException e) {
+                logger.warning("Delta download of " + fileUrl + " failed, downloading the whole file. Error : ", e);
+
+                deltaFailed = true;
+                part.delete();
             }
 
-            // Closing the input stream
-            dis.close();
+            if(received >= 0) {
+                logger.info("Downloaded the changes of file %s, %d bytes reused, %d bytes downloaded", fileUrl, delta.getReusedBytes(), received);
 
-            // Writing the file
-            FileOutputStream fos = new FileOutputStream(dest);
-            fos.write(fileData);
+                downloadedBytes = received;
 
-            // Closing the output stream
-            fos.close();
+                if(digest != null)
+                    digest(part, digest);
 
-            // Incrementing the BarAPI 'numberOfDownloadedFiles' variable
-            BarAPI.setNumberOfDownloadedFiles(BarAPI.getNumberOfDownloadedFiles() + 1);
-        } catch (IOException e) {
-            // If it failed printing a warning message
-            logger.warning("File " + fileUrl + " wasn't downloaded, error: ", e);
+                try {
+                    complete(part);
+                } catch (CorruptedFileException e) {
+                    // Not trying it again
+                    deltaFailed = true;
+
+                    throw e;
+                }
+
+                return;
+            }
+        }
+
+        long requestTime = System.nanoTime();
+        HttpResponse response = null;
+
+        // If enabled, looking for a pre-compressed version of the file first
+        boolean precompressed = false;
+        if(offset == 0 && manager != null && manager.isPrecompressedLookupEnabled()) {
+            try {
+                response = sendRequest(getTransport(), new URL(fileUrl + ".gz"), 0, -1, null, false);
+                precompressed = response.isSuccessful();
+            } catch (IOException e) {
+                // The pre-compressed version is optional, downloading the file itself
+                logger.warning("Unable to get the pre-compressed version of " + fileUrl + ", downloading the file. Error : ", e);
+            }
+
+            if(!precompressed && response != null) {
+                response.close();
+                response = null;
+            }
+        }
+
+        // Sending the request
+        if(response == null)
+            response = sendRequest(getTransport(), fileUrl, offset, -1, offset > 0 ? state.getValidator() : null, isCompressionEnabled());
+
+        latency = System.nanoTime() - requestTime;
+
+        try {
+            // If we asked for a range but didn't get the right one
+            if(offset > 0 && (response.getCode() != HttpURLConnection.HTTP_PARTIAL || getRangeStart(response) != offset)) {
+                logger.info("File %s changed on the server, downloading it again", fileUrl);
+
+                // If the server didn't send the full file instead, asking for it
+                if(response.getCode() != HttpURLConnection.HTTP_OK) {
+                    response.close();
+                    response = sendRequest(getTransport(), fileUrl, 0, -1, null, isCompressionEnabled());
+                }
+
+                offset = 0;
+            }
+
+            // If the server returned an error
+            if(!response.isSuccessful())
+                throw new IOException("Server returned HTTP response code: " + response.getCode() + " for URL: " + fileUrl);
+
+            // Getting the length of the response (-1 if the response is chunked)
+            long length = response.getContentLength();
+
+            // If the file is compressed, its length is unknown, and the bytes are
+            // counted after being decompressed (like the sizes given by the server)
+            boolean encoded = precompressed || response.isEncoded();
+            if(encoded)
+                length = -1;
+
+            // Counting the file in the total, now that its size is known
+            if(length >= 0)
+                countSize(offset + length);
+
+            if(offset > 0) {
+                logger.info("Resuming file %s at byte %d", fileUrl, offset);
+
+                // The already downloaded bytes are counted as downloaded
+                BarAPI.addNumberOfTotalDownloadedBytes(offset);
+
+                // And they are given to the digest before the new ones
+                if(digest != null)
+                    digest(part, digest);
+            } else {
+                // Saving the state of the new download if the server gave a validator
+                // (a compressed download can't be resumed, the ranges are in the compressed bytes)
+                state = PartialDownload.fromResponse(url, response, length);
+                PartialDownload.delete(dest);
+
+                if(!encoded && state.canResume(url))
+                    state.save(dest);
+            }
+
+            // If the file is big enough, and the server accepts the ranges, downloading it in segments
+            if(offset == 0 && !encoded && isSegmentable(response, length, state)) {
+                logger.info("Downloading file %s in %d segments", fileUrl, manager.getSegmentCount());
+
+                // The segments can't be resumed
+                PartialDownload.getStateFile(dest).delete();
+
+                new SegmentedDownload(getTransport(), getBandwidthLimiter(), fileUrl, part, length, state.getValidator(), manager.getSegmentCount(), manager.getSegmentPool()).download(response);
+
+                // The segments aren't received in order, so the file is read once to verify it
+                if(digest != null)
+                    digest(part, digest);
+            } else
+                transfer(precompressed ? new GZIPInputStream(response.getBody(), 8192) : response.getDecodedBody(), part, offset, length);
+        } finally {
+            response.close();
+        }
+
+        downloadedBytes = part.length() - offset;
+
+        complete(part);
+    }
+
+    /**
+     * Verify the downloaded '.part' file, then rename it to the
+     * destination
+     *
+     * @param part
+     *            The '.part' file, complete
+     * @throws IOException
+     *            If the file is corrupted, or if it can't be renamed
+     */
+    private void complete(File part) throws IOException {
+        // The file is complete, its size is known even if the server didn't give it
+        countSize(part.length());
+
+        // Verifying the file
+        byte[] result = digest != null ? digest.digest() : null;
+
+        if(result != null && !manager.getCheckMethod().isValid(infos, result)) {
+            // Its bytes are not counted as downloaded anymore
+            BarAPI.addNumberOfTotalDownloadedBytes(-part.length());
+
+            // Removing it, so the next try downloads it from the beginning
+            PartialDownload.delete(dest);
+
+            throw new CorruptedFileException(dest);
+        }
+
+        // Replacing the destination file by the downloaded one
+        if(dest.exists() && !dest.delete() || !part.renameTo(dest))
+            throw new FileNoPermissionException(dest);
+
+        // The download is done, so its state isn't needed anymore
+        PartialDownload.getStateFile(dest).delete();
+
+        // Letting the check method finish the file
+        if(infos != null && manager != null)
+            manager.getCheckMethod().onFileDownloaded(infos, dest);
+
+        // Remembering its digest, so it isn't hashed again on the next update
+        HashIndex index = result != null ? manager.getHashIndex() : null;
+        if(index != null)
+            index.putDownloaded(infos.getFileRelativePath(), dest, result);
+    }
+
+    /**
+     * Check if the file can be downloaded with a delta download : it
+     * must be enabled, the server must have given the blocks of the
+     * file, and there must be an old version of the file
+     *
+     * @return True if it can
+     */
+    private boolean isDeltaPossible() {
+        return manager != null && manager.isDeltaEnabled() && !deltaFailed && infos != null && infos.getBlockSignature() != null && infos.getBlockSignature().isValid() && dest.isFile();
+    }
+
+    /**
+     * Check if a response can be downloaded in segments : the
+     * segmented download must be enabled and the file big enough,
+     * and the server must accept the ranges and give a validator
+     *
+     * @param response
+     *            The full response
+     * @param length
+     *            The length of the response
+     * @param state
+     *            The state created for the response
+     * @return True if the file can be split
+     */
+    private boolean isSegmentable(HttpResponse response, long length, PartialDownload state) {
+        return manager != null
+                && manager.isSegmentedDownloadEnabled()
+                && length >= manager.getSegmentThreshold()
+                && "bytes".equalsIgnoreCase(response.getHeader("Accept-Ranges"))
+                && state.getValidator() != null;
+    }
+
+    /**
+     * Write a response to the '.part' file, as a single stream
+     *
+     * @param body
+     *            The (decoded) body of the response
+     * @param part
+     *            The '.part' file
+     * @param offset
+     *            The first byte of the response (to append to the '.part' file)
+     * @param length
+     *            The length of the response, or -1 if unknown
+     * @throws IOException
+     *            If it failed to download the file
+     */
+    private void transfer(InputStream body, File part, long offset, long length) throws IOException {
+        InputStream input = body;
+        OutputStream output = null;
+
+        try {
+            // Opening the '.part' file, appending to it if resuming
+            output = new FileOutputStream(part, offset > 0);
+
+            // Transfering
+            long transferred = transfer(input, output);
+
+            // If the connection was closed before the end of the file
+            if(length >= 0 && transferred != length)
+                throw new IOException("Received " + transferred + " bytes of " + length);
+        } finally {
+            // Closing the streams
+            closeQuietly(input);
+            closeQuietly(output);
+        }
+    }
+
+    /**
+     * Request a file, with a Range request if we only need a part of it
+     *
+     * @param transport
+     *            The transport sending the request
+     * @param fileUrl
+     *            The URL of the file
+     * @param from
+     *            The first byte to download
+     * @param to
+     *            The last byte to download, or -1 for the end of the file
+     * @param validator
+     *            The validator for the If-Range header, to get the full file
+     *            if it changed, null to not send it
+     * @param compression
+     *            If the server can compress the file (ignored for a range)
+     * @return The response of the server
+     * @throws IOException
+     *            If it failed to send the request
+     */
+    static HttpResponse sendRequest(HttpTransport transport, URL fileUrl, long from, long to, String validator, boolean compression) throws IOException {
+        HttpRequest request = new HttpRequest("GET", fileUrl);
+
+        // Asking only the needed bytes, if the file didn't change (not compressed, so the ranges are in the file bytes)
+        if(from > 0 || to >= 0)
+            request.setHeader("Range", "bytes=" + from + "-" + (to >= 0 ? String.valueOf(to) : "")).setHeader("Accept-Encoding", "identity");
+        else if(compression)
+            request.acceptCompression();
+
+        request.setHeader("If-Range", validator);
+
+        return transport.execute(request);
+    }
+
+    /**
+     * Return the first byte of a partial response, read in its
+     * Content-Range header (like 'bytes 100-999/1000')
+     *
+     * @param response
+     *            The partial response
+     * @return The first byte of the response, or -1 if there is no valid Content-Range
+     */
+    static long getRangeStart(HttpResponse response) {
+        String header = response.getHeader("Content-Range");
+
+        if(header == null || !header.startsWith("bytes "))
+            return -1;
+
+        int dash = header.indexOf('-');
+        if(dash == -1)
+            return -1;
+
+        try {
+            return Long.parseLong(header.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Return the transport used to download the file
+     *
+     * @return The file manager transport, or the default one if there is no manager
+     */
+    private HttpTransport getTransport() {
+        return manager != null ? manager.getTransport() : DEFAULT_TRANSPORT;
+    }
+
+    /**
+     * Return the bandwidth limiter of the download
+     *
+     * @return The file manager limiter, or an unlimited one if there is no manager
+     */
+    private BandwidthLimiter getBandwidthLimiter() {
+        return manager != null ? manager.getBandwidthLimiter() : NO_LIMIT;
+    }
+
+    /**
+     * Return if the server can compress the file
+     *
+     * @return True if the compression is enabled in the file manager
+     */
+    private boolean isCompressionEnabled() {
+        return manager != null && manager.isCompressionEnabled();
+    }
+
+    /**
+     * Return the URL of the file to download
+     *
+     * @return The file URL
+     */
+    public URL getFileUrl() {
+        return fileUrl;
+    }
+
+    /**
+     * Counts the size of the file in the BarAPI total bytes to
+     * download, only what wasn't counted yet is added (the size can
+     * be known when the file is queued, when the server answers, or
+     * only once it is downloaded)
+     *
+     * @param fileSize
+     *            The size of the file, or -1 if unknown
+     */
+    synchronized void countSize(long fileSize) {
+        if(fileSize <= countedSize)
+            return;
+
+        BarAPI.addNumberOfTotalBytesToDownload(fileSize - countedSize);
+        countedSize = fileSize;
+    }
+
+    /**
+     * Return the destination file
+     *
+     * @return The destination file
+     */
+    public File getDest() {
+        return dest;
+    }
+
+    /**
+     * Return the expected size of the file
+     *
+     * @return The file size, or -1 if unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Return the priority of the file
+     *
+     * @return The file priority
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Return the queue number of this task
+     *
+     * @return The sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Copy an input stream to an output stream, chunk by chunk,
+     * and add each chunk to the BarAPI downloaded bytes
+     *
+     * @param input
+     *            The stream to read
+     * @param output
+     *            The stream to write
+     * @return The number of transferred bytes
+     * @throws IOException
+     *            If it failed to read or to write
+     */
+    private long transfer(InputStream input, OutputStream output) throws IOException {
+        BandwidthLimiter limiter = getBandwidthLimiter();
+        byte[] buffer = BUFFERS.get();
+        long transferred = 0;
+        int read;
+
+        while((read = input.read(buffer, 0, limiter.getChunkSize(buffer.length))) != -1) {
+            limiter.acquire(read);
+
+            output.write(buffer, 0, read);
+
+            // Verifying the bytes while they are downloaded, so the file doesn't need to be read again
+            if(digest != null)
+                digest.update(buffer, 0, read);
+
+            transferred += read;
+
+            BarAPI.addNumberOfTotalDownloadedBytes(read);
+        }
+
+        return transferred;
+    }
+
+    /**
+     * Copy a part of an input stream at a position of a file channel,
+     * chunk by chunk, and add each chunk to the BarAPI downloaded bytes
+     *
+     * @param input
+     *            The stream to read
+     * @param channel
+     *            The channel to write
+     * @param position
+     *            The position where to write the first byte
+     * @param length
+     *            The number of bytes to transfer
+     * @param limiter
+     *            The bandwidth limiter of the download
+     * @throws IOException
+     *            If it failed to read or to write, or if the stream ended too early
+     */
+    static void transfer(InputStream input, FileChannel channel, long position, long length, BandwidthLimiter limiter) throws IOException {
+        byte[] buffer = BUFFERS.get();
+        long remaining = length;
+
+        while(remaining > 0) {
+            int read = input.read(buffer, 0, (int) Math.min(limiter.getChunkSize(buffer.length), remaining));
+            if(read == -1)
+                throw new IOException("Received " + (length - remaining) + " bytes of " + length);
+
+            limiter.acquire(read);
+
+            // Writing the chunk at its position (a positional write doesn't move the channel, so the segments can share it)
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+            while(chunk.hasRemaining())
+                position += channel.write(chunk, position);
+
+            remaining -= read;
+
+            BarAPI.addNumberOfTotalDownloadedBytes(read);
+        }
+    }
+
+    /**
+     * Give all the bytes of a file to a digest
+     *
+     * @param file
+     *            The file to read
+     * @param digest
+     *            The digest to update
+     * @throws IOException
+     *            If it failed to read the file
+     */
+    static void digest(File file, MessageDigest digest) throws IOException {
+        FileHasher.update(digest, file);
+    }
+
+    /**
+     * Close a stream, ignoring the errors
+     *
+     * @param closeable
+     *            The stream to close (can be null)
+     */
+    static void closeQuietly(Closeable closeable) {
+        if(closeable == null)
+            return;
+
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
         }
     }
 
@@ -20,9 +20,15 @@ package fr.theshark34.supdate.files;
 
 import java.io.File;
 import java.net.URL;
+import java.util.Comparator;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import fr.theshark34.supdate.BarAPI;
 import fr.theshark34.supdate.SUpdate;
@@ -30,7 +36,13 @@ import fr.theshark34.supdate.application.Application;
 import fr.theshark34.supdate.application.event.fileaction.FileActionDownloadEvent;
 import fr.theshark34.supdate.application.event.fileaction.FileActionEvent;
 import fr.theshark34.supdate.application.event.fileaction.FileActionRenameEvent;
+import fr.theshark34.supdate.check.CheckMethod;
+import fr.theshark34.supdate.check.FileInfos;
+import fr.theshark34.supdate.check.HashIndex;
 import fr.theshark34.supdate.exception.FileNoPermissionException;
+import fr.theshark34.supdate.files.concurrency.ConcurrencyPolicy;
+import fr.theshark34.supdate.files.concurrency.FixedConcurrencyPolicy;
+import fr.theshark34.supdate.http.HttpTransport;
 
 import static fr.theshark34.supdate.SUpdate.logger;
 
@@ -55,9 +67,93 @@ public class FileManager {
     private SUpdate sUpdate;
 
     /**
-     * The executor pool for Multi-Threaded download
+     * The policy deciding the number of downloads in flight
      */
-    private ExecutorService pool = Executors.newFixedThreadPool(10);
+    private ConcurrencyPolicy concurrencyPolicy = new FixedConcurrencyPolicy(10);
+
+    /**
+     * The current number of downloads in flight
+     */
+    private int concurrency = concurrencyPolicy.getInitialConcurrency();
+
+    /**
+     * The order of the download queue
+     */
+    private volatile DownloadOrder downloadOrder = DownloadOrder.SUBMISSION;
+
+    /**
+     * The number of queued downloads, used to keep the queue order
+     * between files of the same rank
+     */
+    private AtomicLong sequence = new AtomicLong();
+
+    /**
+     * The executor pool for Multi-Threaded download, its queue is
+     * sorted with the download order
+     */
+    private ThreadPoolExecutor pool = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(64, new Comparator<Runnable>() {
+        @Override
+        public int compare(Runnable first, Runnable second) {
+            return downloadOrder.compare((DownloadTask) first, (DownloadTask) second);
+        }
+    })) {
+        @Override
+        protected void beforeExecute(Thread thread, Runnable task) {
+            // The task left the queue, another one can be queued
+            queuePermits.release();
+        }
+    };
+
+    /**
+     * The maximum number of downloads waiting in the queue
+     */
+    private int maxQueuedDownloads = 256;
+
+    /**
+     * The free places in the download queue, download waits for one
+     * when the queue is full
+     */
+    private volatile Semaphore queuePermits = new Semaphore(maxQueuedDownloads);
+
+    /**
+     * The limiter of the download speed, shared by all the tasks
+     */
+    private BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
+
+    /**
+     * The executor pool for the segments of the big files
+     */
+    private ExecutorService segmentPool = Executors.newCachedThreadPool();
+
+    /**
+     * The number of times a corrupted file is downloaded again
+     */
+    private int maxRetries = 2;
+
+    /**
+     * If the server can compress the downloaded files
+     */
+    private boolean compressionEnabled = true;
+
+    /**
+     * If a pre-compressed '.gz' version of each file is looked for first
+     */
+    private boolean precompressedLookup = false;
+
+    /**
+     * If only the changed blocks of the files are downloaded, when possible
+     */
+    private boolean deltaEnabled = true;
+
+    /**
+     * The minimum size of a file to download it in segments
+     */
+    private long segmentThreshold = 0;
+
+    /**
+     * The number of segments of a big file, 1 to disable the segmented download
+     */
+    private int segmentCount = 1;
 
     /**
      * Simple constructor
@@ -78,7 +174,91 @@ public class FileManager {
      *            The output of the file
      */
     public void download(URL fileUrl, File outputFile) {
-        pool.submit(new DownloadTask(fileUrl, outputFile));
+        download(fileUrl, outputFile, -1, 0);
+    }
+
+    /**
+     * Download a file with a Multi-Threaded system, and verify it
+     * with the check method while it is downloaded
+     *
+     * @param fileUrl
+     *            The URL of the file to download
+     * @param outputFile
+     *            The output of the file
+     * @param infos
+     *            The server infos of the file
+     */
+    public void download(URL fileUrl, File outputFile, FileInfos infos) {
+        download(fileUrl, outputFile, infos, -1, 0);
+    }
+
+    /**
+     * Download a file with a Multi-Threaded system, its size is
+     * used to sort the download queue
+     *
+     * @param fileUrl
+     *            The URL of the file to download
+     * @param outputFile
+     *            The output of the file
+     * @param size
+     *            The expected size of the file, or -1 if unknown
+     */
+    public void download(URL fileUrl, File outputFile, long size) {
+        download(fileUrl, outputFile, size, 0);
+    }
+
+    /**
+     * Download a file with a Multi-Threaded system, its size and
+     * its priority are used to sort the download queue
+     *
+     * @param fileUrl
+     *            The URL of the file to download
+     * @param outputFile
+     *            The output of the file
+     * @param size
+     *            The expected size of the file, or -1 if unknown
+     * @param priority
+     *            The priority of the file, used by {@link DownloadOrder#PRIORITY}
+     */
+    public void download(URL fileUrl, File outputFile, long size, int priority) {
+        download(fileUrl, outputFile, null, size, priority);
+    }
+
+    /**
+     * Download a file with a Multi-Threaded system, its size and
+     * its priority are used to sort the download queue, and its
+     * infos to verify it
+     *
+     * @param fileUrl
+     *            The URL of the file to download
+     * @param outputFile
+     *            The output of the file
+     * @param infos
+     *            The server infos of the file, can be null
+     * @param size
+     *            The expected size of the file, or -1 if unknown
+     * @param priority
+     *            The priority of the file, used by {@link DownloadOrder#PRIORITY}
+     */
+    public void download(URL fileUrl, File outputFile, FileInfos infos, long size, int priority) {
+        // Starting the threads, so the tasks always go through the sorted queue
+        if(pool.getPoolSize() < pool.getCorePoolSize())
+            pool.prestartAllCoreThreads();
+
+        DownloadTask task = new DownloadTask(this, fileUrl, outputFile, infos, size, priority, sequence.getAndIncrement());
+
+        // Counting the file in the total now if its size is known, else when the server gives it
+        task.countSize(size);
+
+        // Waiting for a place in the queue if it is full
+        queuePermits.acquireUninterruptibly();
+
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            queuePermits.release();
+            throw e;
+        }
 
         // Then sending a onFileAction event to all the applications
         for(Application app : sUpdate.getApplicationManager().getApplications())
@@ -156,6 +336,317 @@ public class FileManager {
             app.onFileAction(new FileActionEvent(sUpdate, FileAction.DELETE, file));
     }
 
+    /**
+     * Enable or not the compression of the downloads : the server
+     * can send the files with the gzip or deflate encoding, they are
+     * decompressed while they are downloaded. Enabled by default.
+     *
+     * @param enabled
+     *            True to enable it, false to disable it
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        this.compressionEnabled = enabled;
+    }
+
+    /**
+     * Returns if the server can compress the downloaded files
+     *
+     * @return True if it can, false if not
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * Enable or not the lookup of pre-compressed files : before
+     * downloading a file, its '.gz' version is requested, and used if
+     * it exists. It costs a request for the files without one, so
+     * enable it only if the server has them. Disabled by default.
+     *
+     * @param enabled
+     *            True to enable it, false to disable it
+     */
+    public void setPrecompressedLookupEnabled(boolean enabled) {
+        this.precompressedLookup = enabled;
+    }
+
+    /**
+     * Returns if the pre-compressed '.gz' files are looked for
+     *
+     * @return True if they are, false if not
+     */
+    public boolean isPrecompressedLookupEnabled() {
+        return precompressedLookup;
+    }
+
+    /**
+     * Enable or not the delta downloads : when the server gives the
+     * block signature of a file and there is an old version of it,
+     * only its changed blocks are downloaded (with Range requests),
+     * the others are copied from the old version. Enabled by default.
+     *
+     * @param enabled
+     *            True to enable it, false to disable it
+     */
+    public void setDeltaEnabled(boolean enabled) {
+        this.deltaEnabled = enabled;
+    }
+
+    /**
+     * Returns if only the changed blocks of the files are downloaded
+     *
+     * @return True if they are, false if not
+     */
+    public boolean isDeltaEnabled() {
+        return deltaEnabled;
+    }
+
+    /**
+     * Sets the number of times a corrupted file is downloaded again
+     * (default is 2)
+     *
+     * @param maxRetries
+     *            The maximum number of retries
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Returns the number of times a corrupted file is downloaded again
+     *
+     * @return The maximum number of retries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns the check method verifying the downloaded files
+     *
+     * @return The SUpdate check method
+     */
+    CheckMethod getCheckMethod() {
+        return sUpdate.getCheckMethod();
+    }
+
+    /**
+     * Returns the hash index of the running update, where the digests
+     * of the downloaded files are remembered
+     *
+     * @return The hash index, or null if there is no running update
+     */
+    HashIndex getHashIndex() {
+        return sUpdate.getUpdater() != null ? sUpdate.getUpdater().getHashIndex() : null;
+    }
+
+    /**
+     * Returns the transport used to download the files
+     *
+     * @return The SUpdate transport
+     */
+    public HttpTransport getTransport() {
+        return sUpdate.getTransport();
+    }
+
+    /**
+     * Sets the maximum download speed of all the downloads, it can
+     * be changed during the downloads
+     *
+     * @param bytesPerSecond
+     *            The maximum speed (in bytes per second), 0 for no limit
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        bandwidthLimiter.setRate(bytesPerSecond);
+    }
+
+    /**
+     * Returns the limiter of the download speed
+     *
+     * @return The bandwidth limiter
+     */
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    /**
+     * Sets the order of the download queue (default is
+     * {@link DownloadOrder#SUBMISSION}). It can't be changed while
+     * files are waiting in the queue.
+     *
+     * @param downloadOrder
+     *            The new download order
+     */
+    public void setDownloadOrder(DownloadOrder downloadOrder) {
+        if(!pool.getQueue().isEmpty())
+            throw new IllegalStateException("Can't change the download order while files are queued");
+
+        this.downloadOrder = downloadOrder;
+    }
+
+    /**
+     * Sets the maximum number of downloads waiting in the queue (default
+     * is 256) : when it is full, download waits until a download starts.
+     * It keeps the files checked much faster than they are downloaded
+     * from piling up.
+     *
+     * @param maxQueuedDownloads
+     *            The maximum number of queued downloads
+     */
+    public synchronized void setMaxQueuedDownloads(int maxQueuedDownloads) {
+        if(maxQueuedDownloads < 1)
+            throw new IllegalArgumentException("maxQueuedDownloads must be at least 1");
+        if(!pool.getQueue().isEmpty())
+            throw new IllegalStateException("Can't change the queue size while files are queued");
+
+        this.maxQueuedDownloads = maxQueuedDownloads;
+        this.queuePermits = new Semaphore(maxQueuedDownloads);
+    }
+
+    /**
+     * Returns the maximum number of downloads waiting in the queue
+     *
+     * @return The maximum number of queued downloads
+     */
+    public int getMaxQueuedDownloads() {
+        return maxQueuedDownloads;
+    }
+
+    /**
+     * Returns the order of the download queue
+     *
+     * @return The download order
+     */
+    public DownloadOrder getDownloadOrder() {
+        return downloadOrder;
+    }
+
+    /**
+     * Sets the policy deciding the number of downloads in flight
+     * (default is a {@link FixedConcurrencyPolicy} of 10 downloads)
+     *
+     * @param concurrencyPolicy
+     *            The new concurrency policy
+     */
+    public synchronized void setConcurrencyPolicy(ConcurrencyPolicy concurrencyPolicy) {
+        this.concurrencyPolicy = concurrencyPolicy;
+
+        setConcurrency(concurrencyPolicy.getInitialConcurrency());
+    }
+
+    /**
+     * Returns the policy deciding the number of downloads in flight
+     *
+     * @return The concurrency policy
+     */
+    public ConcurrencyPolicy getConcurrencyPolicy() {
+        return concurrencyPolicy;
+    }
+
+    /**
+     * Returns the current number of downloads in flight
+     *
+     * @return The current concurrency
+     */
+    public synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Called by the download tasks when they are finished, to give
+     * their measures to the concurrency policy
+     *
+     * @param bytes
+     *            The number of bytes downloaded by the task
+     * @param latency
+     *            The time between the request and the response headers
+     *            (in nanoseconds), or -1 if it wasn't measured
+     * @param success
+     *            If the download succeeded
+     */
+    synchronized void onDownloadFinished(long bytes, long latency, boolean success) {
+        int newConcurrency = concurrencyPolicy.onDownloadFinished(concurrency, bytes, latency, success);
+
+        if(newConcurrency != concurrency) {
+            logger.info("Changing the number of parallel downloads from %d to %d", concurrency, newConcurrency);
+            setConcurrency(newConcurrency);
+        }
+    }
+
+    /**
+     * Resize the download pool
+     *
+     * @param concurrency
+     *            The new number of downloads in flight
+     */
+    private void setConcurrency(int concurrency) {
+        // The maximum size can't be under the core size, so changing them in the right order
+        if(concurrency > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(concurrency);
+            pool.setCorePoolSize(concurrency);
+        } else {
+            pool.setCorePoolSize(concurrency);
+            pool.setMaximumPoolSize(concurrency);
+        }
+
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Enable the segmented download : the files bigger than the
+     * threshold will be split into segments, downloaded at the same
+     * time. If the server doesn't accept the ranges, the files are
+     * downloaded normally.
+     *
+     * @param threshold
+     *            The minimum size of a file to split it (in bytes)
+     * @param segments
+     *            The number of segments, 1 to disable it
+     */
+    public void setSegmentedDownload(long threshold, int segments) {
+        if(segments < 1)
+            throw new IllegalArgumentException("The number of segments can't be less than 1");
+
+        this.segmentThreshold = threshold;
+        this.segmentCount = segments;
+    }
+
+    /**
+     * Return if the segmented download is enabled
+     *
+     * @return True if the big files are split
+     */
+    public boolean isSegmentedDownloadEnabled() {
+        return segmentCount > 1;
+    }
+
+    /**
+     * Return the minimum size of a file to download it in segments
+     *
+     * @return The segment threshold (in bytes)
+     */
+    public long getSegmentThreshold() {
+        return segmentThreshold;
+    }
+
+    /**
+     * Return the number of segments of a big file
+     *
+     * @return The segment count
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Return the executor pool for the segments of the big files
+     *
+     * @return The segment pool
+     */
+    ExecutorService getSegmentPool() {
+        return segmentPool;
+    }
+
     /**
      * Stops the download pool and wait for its end
      */
@@ -166,8 +657,11 @@ public class FileManager {
             pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
         } catch (InterruptedException e) {
         }
+
+        segmentPool.shutdown();
         
         logger.info("Total downloaded bytes: %d", BarAPI.getNumberOfTotalDownloadedBytes());
+        logger.info("Connections: %s", getTransport().getStatistics());
     }
 
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import fr.theshark34.supdate.http.HttpResponse;
+
+/**
+ * The Partial Download
+ *
+ * <p>
+ *     The state of a download that wasn't finished, saved next to
+ *     its '.part' file. It contains the URL of the file, its full
+ *     size, and the validators (ETag / Last-Modified) sent by the
+ *     server, to know if the '.part' file can be resumed with a
+ *     Range request, or if the file changed on the server.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class PartialDownload {
+
+    /**
+     * The extension of the file containing the downloaded bytes
+     */
+    public static final String PART_EXTENSION = ".part";
+
+    /**
+     * The extension of the file containing the saved state
+     */
+    public static final String STATE_EXTENSION = ".part.json";
+
+    /**
+     * The URL of the downloaded file
+     */
+    private String url;
+
+    /**
+     * The full size of the file, or -1 if unknown
+     */
+    private long size;
+
+    /**
+     * The ETag header of the response, can be null
+     */
+    private String etag;
+
+    /**
+     * The Last-Modified header of the response, can be null
+     */
+    private String lastModified;
+
+    /**
+     * The Partial Download
+     *
+     * @param url
+     *            The URL of the downloaded file
+     * @param size
+     *            The full size of the file, or -1 if unknown
+     * @param etag
+     *            The ETag header of the response, can be null
+     * @param lastModified
+     *            The Last-Modified header of the response, can be null
+     */
+    public PartialDownload(String url, long size, String etag, String lastModified) {
+        this.url = url;
+        this.size = size;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Create the state of a download from the headers of its
+     * (full) response
+     *
+     * @param url
+     *            The URL of the downloaded file
+     * @param response
+     *            The response
+     * @param size
+     *            The full size of the file, or -1 if unknown
+     * @return The created state
+     */
+    public static PartialDownload fromResponse(String url, HttpResponse response, long size) {
+        return new PartialDownload(url, size, response.getHeader("ETag"), response.getHeader("Last-Modified"));
+    }
+
+    /**
+     * Return the '.part' file of a destination file
+     *
+     * @param dest
+     *            The destination file
+     * @return The file where the bytes are downloaded
+     */
+    public static File getPartFile(File dest) {
+        return new File(dest.getPath() + PART_EXTENSION);
+    }
+
+    /**
+     * Return the state file of a destination file
+     *
+     * @param dest
+     *            The destination file
+     * @return The file where the state is saved
+     */
+    public static File getStateFile(File dest) {
+        return new File(dest.getPath() + STATE_EXTENSION);
+    }
+
+    /**
+     * Load the saved state of a destination file
+     *
+     * @param dest
+     *            The destination file
+     * @return The saved state, or null if there is none or if it is unreadable
+     */
+    public static PartialDownload load(File dest) {
+        File stateFile = getStateFile(dest);
+
+        if(!stateFile.isFile())
+            return null;
+
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(stateFile), "UTF-8");
+            return new Gson().fromJson(reader, PartialDownload.class);
+        } catch (IOException e) {
+            return null;
+        } catch (JsonParseException e) {
+            return null;
+        } finally {
+            DownloadTask.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Save this state next to a destination file
+     *
+     * @param dest
+     *            The destination file
+     * @throws IOException
+     *            If it failed to write the state
+     */
+    public void save(File dest) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(getStateFile(dest)), "UTF-8");
+
+        try {
+            new Gson().toJson(this, writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Delete the '.part' and the state files of a destination file
+     *
+     * @param dest
+     *            The destination file
+     */
+    public static void delete(File dest) {
+        getPartFile(dest).delete();
+        getStateFile(dest).delete();
+    }
+
+    /**
+     * Return if a download can be resumed with this state : it
+     * must be the same URL, and the server must have given a
+     * validator to check that the file didn't change
+     *
+     * @param url
+     *            The URL of the file to download
+     * @return True if the '.part' file can be resumed
+     */
+    public boolean canResume(String url) {
+        return this.url != null && this.url.equals(url) && getValidator() != null;
+    }
+
+    /**
+     * Return the validator to send in the If-Range header, the
+     * ETag if there is a strong one, else the Last-Modified date
+     * (If-Range doesn't accept the weak ETags)
+     *
+     * @return The validator, or null if there is none
+     */
+    public String getValidator() {
+        return etag != null && !etag.startsWith("W/") ? etag : lastModified;
+    }
+
+    /**
+     * Return the URL of the downloaded file
+     *
+     * @return The file URL
+     */
+    public String getUrl() {
+        return this.url;
+    }
+
+    /**
+     * Return the full size of the file
+     *
+     * @return The file size, or -1 if unknown
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Return the ETag header of the response
+     *
+     * @return The ETag, can be null
+     */
+    public String getETag() {
+        return this.etag;
+    }
+
+    /**
+     * Return the Last-Modified header of the response
+     *
+     * @return The last modified date, can be null
+     */
+    public String getLastModified() {
+        return this.lastModified;
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.files;
+
+/**
+ * The Rolling Checksum
+ *
+ * <p>
+ *     The weak checksum of the blocks of the delta downloads (the
+ *     one of rsync) : for the bytes x(0) to x(n - 1) of a block,
+ *     a = sum of x(i), b = sum of (n - i) * x(i), both modulo 65536,
+ *     and the checksum is a | (b &lt;&lt; 16). It can be rolled : when
+ *     the window moves of one byte, the new checksum is computed from
+ *     the old one, without reading the whole block again.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class RollingChecksum {
+
+    /**
+     * The size of the window
+     */
+    private final int blockSize;
+
+    /**
+     * The two sums
+     */
+    private int a, b;
+
+    /**
+     * The Rolling Checksum
+     *
+     * @param blockSize
+     *            The size of the window
+     */
+    public RollingChecksum(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Compute the checksum of a window
+     *
+     * @param bytes
+     *            The bytes
+     * @param offset
+     *            The start of the window
+     */
+    public void reset(byte[] bytes, int offset) {
+        a = 0;
+        b = 0;
+
+        for(int i = 0; i < blockSize; i++) {
+            int x = bytes[offset + i] & 0xFF;
+            a += x;
+            b += (blockSize - i) * x;
+        }
+    }
+
+    /**
+     * Move the window of one byte
+     *
+     * @param removed
+     *            The byte leaving the window
+     * @param added
+     *            The byte entering the window
+     */
+    public void roll(byte removed, byte added) {
+        a += (added & 0xFF) - (removed & 0xFF);
+        b += a - blockSize * (removed & 0xFF);
+    }
+
+    /**
+     * Returns the checksum of the current window
+     *
+     * @return The checksum
+     */
+    public int getValue() {
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+    /**
+     * Compute the checksum of a block
+     *
+     * @param bytes
+     *            The bytes
+     * @param offset
+     *            The start of the block
+     * @param length
+     *            The size of the block
+     * @return Its checksum
+     */
+    public static int of(byte[] bytes, int offset, int length) {
+        RollingChecksum checksum = new RollingChecksum(length);
+        checksum.reset(bytes, offset);
+
+        return checksum.getValue();
+    }
+
+}
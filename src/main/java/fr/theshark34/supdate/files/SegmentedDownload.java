@@ -0,0 +1,232 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import fr.theshark34.supdate.http.HttpResponse;
+import fr.theshark34.supdate.http.HttpTransport;
+
+/**
+ * The Segmented Download
+ *
+ * <p>
+ *     Downloads a big file with multiple connections : the file is
+ *     split into byte ranges, each one is downloaded at the same time
+ *     and written directly to its position in the '.part' file.
+ * </p>
+ *
+ * <p>
+ *     The first segment is read from the response that was already
+ *     opened by the {@link DownloadTask}, so splitting a file doesn't
+ *     cost an extra request. Each other segment is asked with a Range
+ *     request and an If-Range validator, so all the segments come from
+ *     the same version of the file.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class SegmentedDownload {
+
+    /**
+     * The transport sending the requests
+     */
+    private HttpTransport transport;
+
+    /**
+     * The bandwidth limiter of the download
+     */
+    private BandwidthLimiter limiter;
+
+    /**
+     * The URL of the file to download
+     */
+    private URL fileUrl;
+
+    /**
+     * The file where the segments are written
+     */
+    private File part;
+
+    /**
+     * The full size of the file
+     */
+    private long size;
+
+    /**
+     * The validator (ETag or Last-Modified) of the file
+     */
+    private String validator;
+
+    /**
+     * The number of segments
+     */
+    private int segments;
+
+    /**
+     * The pool where the segments are downloaded
+     */
+    private ExecutorService pool;
+
+    /**
+     * The Segmented Download
+     *
+     * @param transport
+     *            The transport sending the requests
+     * @param limiter
+     *            The bandwidth limiter of the download
+     * @param fileUrl
+     *            The URL of the file to download
+     * @param part
+     *            The file where the segments are written
+     * @param size
+     *            The full size of the file
+     * @param validator
+     *            The validator (ETag or Last-Modified) of the file
+     * @param segments
+     *            The number of segments
+     * @param pool
+     *            The pool where the segments are downloaded
+     */
+    public SegmentedDownload(HttpTransport transport, BandwidthLimiter limiter, URL fileUrl, File part, long size, String validator, int segments, ExecutorService pool) {
+        this.transport = transport;
+        this.limiter = limiter;
+        this.fileUrl = fileUrl;
+        this.part = part;
+        this.size = size;
+        this.validator = validator;
+        this.segments = segments;
+        this.pool = pool;
+    }
+
+    /**
+     * Download all the segments, and wait for them
+     *
+     * @param first
+     *            The already opened (full) response, used for the first segment,
+     *            it is closed at the end of the segment
+     * @throws IOException
+     *            If a segment failed
+     */
+    public void download(HttpResponse first) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(part, "rw");
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+
+        try {
+            // Allocating the full file
+            file.setLength(size);
+            FileChannel channel = file.getChannel();
+
+            long segmentSize = (size + segments - 1) / segments;
+
+            // Submitting all the segments excepted the first
+            for(long from = segmentSize; from < size; from += segmentSize)
+                futures.add(pool.submit(new Segment(channel, from, Math.min(size, from + segmentSize) - from)));
+
+            // Downloading the first one in this thread
+            try {
+                DownloadTask.transfer(first.getBody(), channel, 0, Math.min(size, segmentSize), limiter);
+            } finally {
+                first.close();
+            }
+
+            // Then waiting for the others
+            for(Future<Object> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while downloading " + fileUrl);
+        } catch (ExecutionException e) {
+            throw new IOException("A segment of " + fileUrl + " wasn't downloaded", e.getCause());
+        } finally {
+            // Stopping the remaining segments if one failed
+            for(Future<Object> future : futures)
+                future.cancel(true);
+
+            file.close();
+        }
+    }
+
+    /**
+     * A segment of the file, downloaded with a Range request
+     */
+    private class Segment implements Callable<Object> {
+
+        /**
+         * The channel of the '.part' file
+         */
+        private FileChannel channel;
+
+        /**
+         * The first byte of the segment
+         */
+        private long from;
+
+        /**
+         * The length of the segment
+         */
+        private long length;
+
+        /**
+         * The Segment
+         *
+         * @param channel
+         *            The channel of the '.part' file
+         * @param from
+         *            The first byte of the segment
+         * @param length
+         *            The length of the segment
+         */
+        public Segment(FileChannel channel, long from, long length) {
+            this.channel = channel;
+            this.from = from;
+            this.length = length;
+        }
+
+        @Override
+        public Object call() throws IOException {
+            HttpResponse response = DownloadTask.sendRequest(transport, fileUrl, from, from + length - 1, validator, false);
+
+            try {
+                // If the server didn't send the asked range (the file changed, or it ignored the Range)
+                if(response.getCode() != HttpURLConnection.HTTP_PARTIAL || DownloadTask.getRangeStart(response) != from)
+                    throw new IOException("The server didn't send the bytes " + from + " to " + (from + length - 1) + " of " + fileUrl);
+
+                DownloadTask.transfer(response.getBody(), channel, from, length, limiter);
+            } finally {
+                response.close();
+            }
+
+            return null;
+        }
+
+    }
+
+}
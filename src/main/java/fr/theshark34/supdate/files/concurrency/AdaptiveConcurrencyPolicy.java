@@ -0,0 +1,225 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.files.concurrency;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Adaptive Concurrency Policy
+ *
+ * <p>
+ *    Changes the number of downloads in flight with an AIMD
+ *    (additive increase, multiplicative decrease) algorithm, between
+ *    a minimum and a maximum.
+ * </p>
+ *
+ * <p>
+ *    The finished downloads are grouped in windows (one second by
+ *    default). At the end of each window :
+ *    <ul>
+ *        <li>if a download failed, or if the average latency is more
+ *        than twice the best one seen (the line or the server is
+ *        saturated), the concurrency is multiplied by 3/4. Only the
+ *        latencies of the successful downloads are measured.</li>
+ *        <li>else if the throughput didn't fall compared to the last
+ *        window, one more download is added.</li>
+ *        <li>else the concurrency is multiplied by 3/4.</li>
+ *    </ul>
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class AdaptiveConcurrencyPolicy extends ConcurrencyPolicy {
+
+    /**
+     * The factor applied to the concurrency when decreasing it
+     */
+    private static final double DECREASE_FACTOR = 0.75;
+
+    /**
+     * The drop of throughput tolerated before decreasing the concurrency
+     */
+    private static final double THROUGHPUT_TOLERANCE = 0.9;
+
+    /**
+     * The latency (compared to the best one) from where we consider the line saturated
+     */
+    private static final double LATENCY_TOLERANCE = 2;
+
+    /**
+     * The minimum number of downloads in flight
+     */
+    private int min;
+
+    /**
+     * The maximum number of downloads in flight
+     */
+    private int max;
+
+    /**
+     * The duration of a window (in nanoseconds)
+     */
+    private long window;
+
+    /**
+     * The start of the current window, 0 if not started
+     */
+    private long windowStart;
+
+    /**
+     * The bytes downloaded in the current window
+     */
+    private long windowBytes;
+
+    /**
+     * The sum of the latencies of the current window
+     */
+    private long windowLatency;
+
+    /**
+     * The number of latencies added in the current window
+     */
+    private int windowLatencies;
+
+    /**
+     * If a download failed in the current window
+     */
+    private boolean windowFailed;
+
+    /**
+     * The throughput of the last window (in bytes per second)
+     */
+    private double lastThroughput;
+
+    /**
+     * The best average latency seen
+     */
+    private long bestLatency = Long.MAX_VALUE;
+
+    /**
+     * The Adaptive Concurrency Policy, with one second windows
+     *
+     * @param min
+     *            The minimum number of downloads in flight
+     * @param max
+     *            The maximum number of downloads in flight
+     */
+    public AdaptiveConcurrencyPolicy(int min, int max) {
+        this(min, max, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The Adaptive Concurrency Policy
+     *
+     * @param min
+     *            The minimum number of downloads in flight
+     * @param max
+     *            The maximum number of downloads in flight
+     * @param window
+     *            The duration of a measure window
+     * @param unit
+     *            The unit of the window duration
+     */
+    public AdaptiveConcurrencyPolicy(int min, int max, long window, TimeUnit unit) {
+        if(min < 1 || max < min)
+            throw new IllegalArgumentException("Bad concurrency bounds : " + min + " to " + max);
+
+        this.min = min;
+        this.max = max;
+        this.window = unit.toNanos(window);
+    }
+
+    @Override
+    public int getInitialConcurrency() {
+        return min;
+    }
+
+    @Override
+    public synchronized int onDownloadFinished(int concurrency, long bytes, long latency, boolean success) {
+        long now = System.nanoTime();
+
+        // Starting the first window
+        if(windowStart == 0)
+            windowStart = now;
+
+        // Adding the download to the current window
+        windowBytes += bytes;
+        windowFailed |= !success;
+
+        // The latency of a failed or not measured download means nothing
+        if(success && latency > 0) {
+            windowLatency += latency;
+            windowLatencies++;
+        }
+
+        // If the window isn't finished, don't changing anything
+        long elapsed = now - windowStart;
+        if(elapsed < window)
+            return concurrency;
+
+        // Computing the measures of the window
+        double throughput = windowBytes * 1000000000D / elapsed;
+        boolean saturated = false;
+
+        if(windowLatencies > 0) {
+            long averageLatency = windowLatency / windowLatencies;
+            bestLatency = Math.min(bestLatency, averageLatency);
+            saturated = averageLatency > bestLatency * LATENCY_TOLERANCE;
+        }
+
+        int newConcurrency;
+
+        if(windowFailed || saturated || throughput < lastThroughput * THROUGHPUT_TOLERANCE)
+            // Too much downloads, decreasing
+            newConcurrency = (int) (concurrency * DECREASE_FACTOR);
+        else
+            // It is still getting better, trying one more
+            newConcurrency = concurrency + 1;
+
+        // Starting a new window
+        lastThroughput = throughput;
+        windowStart = now;
+        windowBytes = 0;
+        windowLatency = 0;
+        windowLatencies = 0;
+        windowFailed = false;
+
+        return Math.max(min, Math.min(max, newConcurrency));
+    }
+
+    /**
+     * Return the minimum number of downloads in flight
+     *
+     * @return The minimum concurrency
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * Return the maximum number of downloads in flight
+     *
+     * @return The maximum concurrency
+     */
+    public int getMax() {
+        return max;
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.files.concurrency;
+
+/**
+ * The Concurrency Policy
+ *
+ * <p>
+ *    The Concurrency Policy decides how many files the FileManager
+ *    downloads at the same time. It is told about each finished
+ *    download, and can change the number of downloads in flight.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public abstract class ConcurrencyPolicy {
+
+    /**
+     * The number of downloads in flight when the update starts
+     *
+     * @return The initial concurrency
+     */
+    public abstract int getInitialConcurrency();
+
+    /**
+     * Called by the FileManager when a download is finished
+     *
+     * @param concurrency
+     *            The current number of downloads in flight
+     * @param bytes
+     *            The number of bytes downloaded by this download
+     * @param latency
+     *            The time between the request and the response headers
+     *            (in nanoseconds), or -1 if it wasn't measured
+     * @param success
+     *            If the download succeeded
+     * @return The new number of downloads in flight
+     */
+    public abstract int onDownloadFinished(int concurrency, long bytes, long latency, boolean success);
+
+}
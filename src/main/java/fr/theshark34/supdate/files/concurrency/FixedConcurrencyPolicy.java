@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.files.concurrency;
+
+/**
+ * The Fixed Concurrency Policy
+ *
+ * <p>
+ *    Always downloads the same number of files at the same time.
+ *    This is the default policy, with 10 downloads.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class FixedConcurrencyPolicy extends ConcurrencyPolicy {
+
+    /**
+     * The number of downloads in flight
+     */
+    private int concurrency;
+
+    /**
+     * The Fixed Concurrency Policy
+     *
+     * @param concurrency
+     *            The number of downloads in flight
+     */
+    public FixedConcurrencyPolicy(int concurrency) {
+        if(concurrency < 1)
+            throw new IllegalArgumentException("The concurrency can't be less than 1");
+
+        this.concurrency = concurrency;
+    }
+
+    @Override
+    public int getInitialConcurrency() {
+        return concurrency;
+    }
+
+    @Override
+    public int onDownloadFinished(int concurrency, long bytes, long latency, boolean success) {
+        return this.concurrency;
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.http;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The HTTP Request
+ *
+ * <p>
+ *    A request to give to an {@link HttpTransport} : its method,
+ *    its URL, its headers and its body.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class HttpRequest {
+
+    /**
+     * The request method (GET, POST, ...)
+     */
+    private String method;
+
+    /**
+     * The request URL
+     */
+    private URL url;
+
+    /**
+     * The request headers
+     */
+    private Map<String, String> headers = new LinkedHashMap<String, String>();
+
+    /**
+     * The request body, can be null
+     */
+    private byte[] body;
+
+    /**
+     * The HTTP Request
+     *
+     * @param method
+     *            The request method (GET, POST, ...)
+     * @param url
+     *            The request URL
+     */
+    public HttpRequest(String method, URL url) {
+        this.method = method;
+        this.url = url;
+    }
+
+    /**
+     * Sets a header of the request
+     *
+     * @param name
+     *            The header name
+     * @param value
+     *            The header value, null to remove it
+     * @return This request
+     */
+    public HttpRequest setHeader(String name, String value) {
+        if(value == null)
+            headers.remove(name);
+        else
+            headers.put(name, value);
+
+        return this;
+    }
+
+    /**
+     * Accept a gzip or deflate compressed response, to read with
+     * {@link HttpResponse#getDecodedBody()}
+     *
+     * @return This request
+     */
+    public HttpRequest acceptCompression() {
+        return setHeader("Accept-Encoding", "gzip, deflate");
+    }
+
+    /**
+     * Sets the body of the request
+     *
+     * @param body
+     *            The body to send, can be null
+     * @return This request
+     */
+    public HttpRequest setBody(byte[] body) {
+        this.body = body;
+
+        return this;
+    }
+
+    /**
+     * Returns the request method
+     *
+     * @return The method
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the request URL
+     *
+     * @return The URL
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns a header of the request
+     *
+     * @param name
+     *            The header name
+     * @return The header value, or null if it isn't set
+     */
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * Returns the request headers
+     *
+     * @return The headers
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the request body
+     *
+     * @return The body, can be null
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The HTTP Response
+ *
+ * <p>
+ *    The response of an {@link HttpTransport}, with its code, its
+ *    headers and its body. It must always be closed when it isn't
+ *    used anymore, so its connection can be used by another request.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public abstract class HttpResponse implements Closeable {
+
+    /**
+     * Returns the response code
+     *
+     * @return The code (200, 206, 404, ...)
+     */
+    public abstract int getCode();
+
+    /**
+     * Returns a header of the response
+     *
+     * @param name
+     *            The header name
+     * @return The header value, or null if there is none
+     */
+    public abstract String getHeader(String name);
+
+    /**
+     * Returns the body of the response (the error body if the
+     * code is an error code)
+     *
+     * @return The body stream
+     * @throws IOException
+     *            If the body can't be read
+     */
+    public abstract InputStream getBody() throws IOException;
+
+    /**
+     * Close the response, reading what is left of its body if it
+     * is small to be able to reuse its connection
+     */
+    @Override
+    public abstract void close();
+
+    /**
+     * Returns the length of the response, as a long
+     *
+     * @return The Content-Length header, or -1 if unknown
+     */
+    public long getContentLength() {
+        String header = getHeader("Content-Length");
+
+        if(header == null)
+            return -1;
+
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns if the body of the response is compressed (if it has
+     * a Content-Encoding other than 'identity')
+     *
+     * @return True if the body needs to be decoded
+     */
+    public boolean isEncoded() {
+        String encoding = getHeader("Content-Encoding");
+
+        return encoding != null && !encoding.trim().equalsIgnoreCase("identity");
+    }
+
+    /**
+     * Returns the body of the response, decompressed if the server
+     * used the gzip or the deflate encoding
+     *
+     * @return The decoded body stream
+     * @throws IOException
+     *            If the body can't be read, or if its encoding isn't supported
+     */
+    public InputStream getDecodedBody() throws IOException {
+        if(!isEncoded())
+            return getBody();
+
+        String encoding = getHeader("Content-Encoding").trim().toLowerCase();
+
+        if(encoding.equals("gzip") || encoding.equals("x-gzip"))
+            return new GZIPInputStream(getBody(), 8192);
+
+        if(encoding.equals("deflate")) {
+            // Deflate should be in a zlib wrapper, but some servers send it raw
+            PushbackInputStream body = new PushbackInputStream(getBody(), 2);
+            byte[] header = new byte[2];
+            int read = body.read(header);
+
+            if(read > 0)
+                body.unread(header, 0, read);
+
+            boolean zlib = read == 2 && (header[0] & 0x0F) == 8 && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+
+            return new InflaterInputStream(body, new Inflater(!zlib), 8192);
+        }
+
+        throw new IOException("Unsupported content encoding : " + encoding);
+    }
+
+    /**
+     * Returns if the response code is a success one (2xx)
+     *
+     * @return True if the request succeeded
+     */
+    public boolean isSuccessful() {
+        return getCode() >= 200 && getCode() < 300;
+    }
+
+}
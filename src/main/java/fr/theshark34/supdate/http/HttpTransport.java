@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.http;
+
+import java.io.IOException;
+
+/**
+ * The HTTP Transport
+ *
+ * <p>
+ *    The HTTP Transport sends all the requests of S-Update, the
+ *    server requests and the file downloads. It manages the
+ *    connections, so they can be reused between the requests.
+ * </p>
+ *
+ * <p>
+ *    The default one is the {@link PooledHttpTransport}, using keep-alive
+ *    HTTP/1.1 connections. To use another client (an HTTP/2 one for
+ *    example, to multiplex the requests over a few connections),
+ *    extend this class and give it to SUpdate.setTransport.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public abstract class HttpTransport {
+
+    /**
+     * The user agent sent if the request doesn't have one
+     */
+    public static final String USER_AGENT = "Mozilla/5.0 AppleWebKit/537.36 (KHTML, like Gecko) Chrome/43.0.2357.124 Safari/537.36";
+
+    /**
+     * Send a request and wait for the response headers. The
+     * returned response must always be closed, to give back its
+     * connection.
+     *
+     * @param request
+     *            The request to send
+     * @return The response of the server
+     * @throws IOException
+     *            If it failed to send the request
+     */
+    public abstract HttpResponse execute(HttpRequest request) throws IOException;
+
+    /**
+     * Sets the maximum number of connections opened at the same time
+     * to a same host, the requests wait for a free connection
+     *
+     * @param maxConnectionsPerHost
+     *            The maximum connections per host, 0 for no limit
+     */
+    public abstract void setMaxConnectionsPerHost(int maxConnectionsPerHost);
+
+    /**
+     * Returns the maximum number of connections opened at the same
+     * time to a same host
+     *
+     * @return The maximum connections per host, 0 for no limit
+     */
+    public abstract int getMaxConnectionsPerHost();
+
+    /**
+     * Returns the statistics of the connections
+     *
+     * @return The transport statistics
+     */
+    public abstract TransportStatistics getStatistics();
+
+}
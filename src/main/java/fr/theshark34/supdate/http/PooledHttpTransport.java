@@ -0,0 +1,343 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The Pooled HTTP Transport
+ *
+ * <p>
+ *    The default transport, using the HttpURLConnection of Java. Its
+ *    connections are keep-alive HTTP/1.1 connections, kept by Java
+ *    and reused by the next requests to the same host when the
+ *    previous response was fully read and closed. This transport
+ *    always closes its responses this way, reading what is left of
+ *    the small ones, and dropping the connection of the big ones.
+ * </p>
+ *
+ * <p>
+ *    Java keeps 5 idle connections per host by default, if you increase
+ *    the number of parallel downloads, increase the 'http.maxConnections'
+ *    system property too.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class PooledHttpTransport extends HttpTransport {
+
+    /**
+     * The maximum number of bytes read when closing a response to
+     * keep its connection, the connection is dropped if there are more
+     */
+    private static final int MAX_DRAIN = 64 * 1024;
+
+    /**
+     * The statistics of this transport
+     */
+    private TransportStatistics statistics = new TransportStatistics();
+
+    /**
+     * The free connections of each host, if there is a limit
+     */
+    private ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * The maximum connections per host, 0 for no limit
+     */
+    private volatile int maxConnectionsPerHost;
+
+    /**
+     * The connect timeout (in milliseconds), 0 for none
+     */
+    private int connectTimeout;
+
+    /**
+     * The read timeout (in milliseconds), 0 for none
+     */
+    private int readTimeout;
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        // Waiting for a free connection to the host
+        Semaphore permit = acquire(request.getUrl());
+
+        statistics.onRequestStarted();
+
+        try {
+            // Creating the connection
+            HttpURLConnection connection = (HttpURLConnection) request.getUrl().openConnection();
+            connection.setRequestMethod(request.getMethod());
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+
+            // Adding the headers
+            if(request.getHeader("User-Agent") == null)
+                connection.addRequestProperty("User-Agent", USER_AGENT);
+
+            for(Entry<String, String> header : request.getHeaders().entrySet())
+                connection.setRequestProperty(header.getKey(), header.getValue());
+
+            // Writing the body if needed
+            if(request.getBody() != null) {
+                connection.setDoOutput(true);
+
+                OutputStream output = connection.getOutputStream();
+                try {
+                    output.write(request.getBody());
+                } finally {
+                    output.close();
+                }
+            }
+
+            // Sending the request and waiting for the response headers
+            int code = connection.getResponseCode();
+
+            return new PooledResponse(connection, code, permit);
+        } catch (IOException e) {
+            // Giving back the connection
+            statistics.onRequestFailed();
+            if(permit != null)
+                permit.release();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for a free connection to the host of an URL
+     *
+     * @param url
+     *            The URL of the request
+     * @return The taken permit, or null if there is no limit
+     * @throws IOException
+     *            If the thread was interrupted while waiting
+     */
+    private Semaphore acquire(URL url) throws IOException {
+        int max = maxConnectionsPerHost;
+        if(max <= 0)
+            return null;
+
+        // Getting the permits of the host
+        String host = url.getHost() + ":" + (url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+        Semaphore permits = hostPermits.get(host);
+
+        if(permits == null) {
+            Semaphore created = new Semaphore(max);
+
+            permits = hostPermits.putIfAbsent(host, created);
+            if(permits == null)
+                permits = created;
+        }
+
+        // Taking one, waiting if there isn't any
+        if(!permits.tryAcquire()) {
+            statistics.onRequestWaiting();
+
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting for a connection to " + host);
+            }
+        }
+
+        return permits;
+    }
+
+    @Override
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+
+        // The permits will be created again with the new limit
+        hostPermits.clear();
+    }
+
+    @Override
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Sets the timeouts of the connections
+     *
+     * @param connectTimeout
+     *            The connect timeout (in milliseconds), 0 for none
+     * @param readTimeout
+     *            The read timeout (in milliseconds), 0 for none
+     */
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public TransportStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * A response of a HttpURLConnection
+     */
+    private class PooledResponse extends HttpResponse {
+
+        /**
+         * The connection of the response
+         */
+        private HttpURLConnection connection;
+
+        /**
+         * The response code
+         */
+        private int code;
+
+        /**
+         * The permit of the connection, can be null
+         */
+        private Semaphore permit;
+
+        /**
+         * The opened body, null if not opened yet
+         */
+        private InputStream body;
+
+        /**
+         * If the response was closed
+         */
+        private AtomicBoolean closed = new AtomicBoolean();
+
+        /**
+         * The Pooled Response
+         *
+         * @param connection
+         *            The connection of the response
+         * @param code
+         *            The response code
+         * @param permit
+         *            The permit of the connection, can be null
+         */
+        public PooledResponse(HttpURLConnection connection, int code, Semaphore permit) {
+            this.connection = connection;
+            this.code = code;
+            this.permit = permit;
+        }
+
+        @Override
+        public int getCode() {
+            return code;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if(body == null) {
+                InputStream stream = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+
+                // The error stream is null if there is no body
+                if(stream == null)
+                    throw new IOException("Server returned HTTP response code: " + code + " for URL: " + connection.getURL());
+
+                body = new CountingInputStream(stream);
+            }
+
+            return body;
+        }
+
+        @Override
+        public void close() {
+            if(!closed.compareAndSet(false, true))
+                return;
+
+            try {
+                // Reading what is left of the body so Java can reuse the connection
+                InputStream stream = getBody();
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+
+                while(drained <= MAX_DRAIN && (read = stream.read(buffer)) != -1)
+                    drained += read;
+
+                // If there is too much left, dropping the connection
+                if(drained > MAX_DRAIN)
+                    connection.disconnect();
+                else
+                    stream.close();
+            } catch (IOException e) {
+                connection.disconnect();
+            } finally {
+                statistics.onRequestFinished();
+
+                if(permit != null)
+                    permit.release();
+            }
+        }
+
+    }
+
+    /**
+     * An input stream counting the received bytes in the statistics
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        /**
+         * The Counting Input Stream
+         *
+         * @param input
+         *            The stream to count
+         */
+        public CountingInputStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if(read != -1)
+                statistics.onBytesReceived(1);
+
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if(read > 0)
+                statistics.onBytesReceived(read);
+
+            return read;
+        }
+
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.http;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Transport Statistics
+ *
+ * <p>
+ *    The statistics of an {@link HttpTransport} : the number of
+ *    sent requests, the opened connections, and the requests that
+ *    had to wait for the per-host limit.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class TransportStatistics {
+
+    /**
+     * The number of sent requests
+     */
+    private AtomicLong requests = new AtomicLong();
+
+    /**
+     * The number of requests that failed before the response
+     */
+    private AtomicLong failures = new AtomicLong();
+
+    /**
+     * The number of requests that waited for a free connection
+     */
+    private AtomicLong waits = new AtomicLong();
+
+    /**
+     * The number of body bytes received
+     */
+    private AtomicLong receivedBytes = new AtomicLong();
+
+    /**
+     * The number of connections in use
+     */
+    private AtomicInteger activeConnections = new AtomicInteger();
+
+    /**
+     * The maximum number of connections that were in use at the same time
+     */
+    private AtomicInteger peakConnections = new AtomicInteger();
+
+    /**
+     * Called when a request is sent
+     */
+    public void onRequestStarted() {
+        requests.incrementAndGet();
+
+        // Updating the peak
+        int active = activeConnections.incrementAndGet();
+        int peak;
+        while((peak = peakConnections.get()) < active && !peakConnections.compareAndSet(peak, active));
+    }
+
+    /**
+     * Called when a response is closed
+     */
+    public void onRequestFinished() {
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * Called when a request failed before the response
+     */
+    public void onRequestFailed() {
+        failures.incrementAndGet();
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * Called when a request waits for a free connection
+     */
+    public void onRequestWaiting() {
+        waits.incrementAndGet();
+    }
+
+    /**
+     * Called when body bytes are received
+     *
+     * @param bytes
+     *            The number of received bytes
+     */
+    public void onBytesReceived(long bytes) {
+        receivedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Returns the number of sent requests
+     *
+     * @return The requests count
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of requests that failed before the response
+     *
+     * @return The failures count
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Returns the number of requests that waited for a free connection
+     *
+     * @return The waits count
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * Returns the number of body bytes received
+     *
+     * @return The received bytes
+     */
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    /**
+     * Returns the number of connections in use
+     *
+     * @return The active connections
+     */
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * Returns the maximum number of connections that were in use at the same time
+     *
+     * @return The peak connections
+     */
+    public int getPeakConnections() {
+        return peakConnections.get();
+    }
+
+    @Override
+    public String toString() {
+        return requests + " requests, " + failures + " failed, " + waits + " waited for a connection, "
+                + peakConnections + " connections at most, " + receivedBytes + " bytes received";
+    }
+
+}
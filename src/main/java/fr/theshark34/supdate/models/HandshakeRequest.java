@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.models;
+
+import java.util.List;
+
+/**
+ * The Handshake Request
+ *
+ * <p>
+ *    This is the model of the 'handshake' request body : the check
+ *    methods and the server-required applications to look for.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class HandshakeRequest {
+
+    /**
+     * The names of the check methods
+     */
+    private List<String> checkMethods;
+
+    /**
+     * The names of the applications
+     */
+    private List<String> applications;
+
+    /**
+     * The Handshake Request
+     *
+     * @param checkMethods
+     *            The names of the check methods
+     * @param applications
+     *            The names of the applications
+     */
+    public HandshakeRequest(List<String> checkMethods, List<String> applications) {
+        this.checkMethods = checkMethods;
+        this.applications = applications;
+    }
+
+    /**
+     * Return the names of the check methods
+     *
+     * @return The check method names
+     */
+    public List<String> getCheckMethods() {
+        return checkMethods;
+    }
+
+    /**
+     * Return the names of the applications
+     *
+     * @return The application names
+     */
+    public List<String> getApplications() {
+        return applications;
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.models;
+
+import java.util.Map;
+
+/**
+ * The Handshake Response
+ *
+ * <p>
+ *    This is the model of the 'handshake' request response : all the
+ *    answers of the 'is-enabled', 'version', and 'check' requests in
+ *    one response.
+ * </p>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class HandshakeResponse {
+
+    /**
+     * If the server is enabled
+     */
+    private boolean enabled;
+
+    /**
+     * The server version
+     */
+    private String version;
+
+    /**
+     * If each asked check method is present on the server
+     */
+    private Map<String, Boolean> checkMethods;
+
+    /**
+     * If each asked application is present on the server
+     */
+    private Map<String, Boolean> applications;
+
+    /**
+     * The Handshake Response
+     *
+     * @param enabled
+     *            If the server is enabled
+     * @param version
+     *            The server version
+     * @param checkMethods
+     *            If each asked check method is present on the server
+     * @param applications
+     *            If each asked application is present on the server
+     */
+    public HandshakeResponse(boolean enabled, String version, Map<String, Boolean> checkMethods, Map<String, Boolean> applications) {
+        this.enabled = enabled;
+        this.version = version;
+        this.checkMethods = checkMethods;
+        this.applications = applications;
+    }
+
+    /**
+     * Return if the server is enabled
+     *
+     * @return True if it is
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Return the server version
+     *
+     * @return The server version
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Return if each asked check method is present on the server
+     *
+     * @return The check methods presence, by name
+     */
+    public Map<String, Boolean> getCheckMethods() {
+        return checkMethods;
+    }
+
+    /**
+     * Return if each asked application is present on the server
+     *
+     * @return The applications presence, by name
+     */
+    public Map<String, Boolean> getApplications() {
+        return applications;
+    }
+
+}
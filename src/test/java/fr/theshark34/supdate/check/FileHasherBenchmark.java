@@ -0,0 +1,261 @@
+/*
+ * Copyright 2015 TheShark34
+ *
+ * This file is part of S-Update.
+
+ * S-Update is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * S-Update is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with S-Update.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.theshark34.supdate.check;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import fr.theshark34.supdate.check.md5.MD5CheckMethod;
+import fr.theshark34.supdate.check.sha256.SHA256CheckMethod;
+import fr.theshark34.supdate.check.xxhash.XXHash64CheckMethod;
+
+/**
+ * The File Hasher Benchmark
+ *
+ * <p>
+ *    Measures the throughput of the ways to read the local files
+ *    (the old 1 KB stream, a 64 KB stream, a FileChannel with a
+ *    direct buffer, mapped regions, and the FileHasher) with MD5,
+ *    then the one of each hash check method with the FileHasher, on
+ *    a big file and on many small files. The corpus is created in the
+ *    given folder if it isn't there. The first run of each way is a
+ *    warm-up, it also puts the files in the page cache, so the next
+ *    ones mostly measure the hashing.
+ * </p>
+ *
+ * <pre>
+ * ./gradlew hashBenchmark -Pfolder=/tmp/bench -PbigSize=512
+ * </pre>
+ *
+ * @version 3.1.0-BETA
+ * @author TheShark34
+ */
+public class FileHasherBenchmark {
+
+    /**
+     * The number of small files
+     */
+    private static final int SMALL_FILES = 5000;
+
+    /**
+     * The size of the small files
+     */
+    private static final int SMALL_SIZE = 8 * 1024;
+
+    /**
+     * The number of runs of each way, the first one is the warm-up
+     */
+    private static final int RUNS = 4;
+
+    /**
+     * The names of the ways to hash the files
+     */
+    private static final String[] WAYS = { "stream, 1 KB (before)", "stream, 64 KB", "channel, direct 1 MB", "mmap, 64 MB regions", "FileHasher" };
+
+    /**
+     * The index of the FileHasher way
+     */
+    private static final int FILE_HASHER = 4;
+
+    /**
+     * The check methods compared
+     */
+    private static final HashCheckMethod[] CHECK_METHODS = { new MD5CheckMethod(), new SHA256CheckMethod(), new XXHash64CheckMethod() };
+
+    /**
+     * The buffer of the channel way
+     */
+    private static final ByteBuffer DIRECT = ByteBuffer.allocateDirect(FileHasher.BUFFER_SIZE);
+
+    /**
+     * Runs the benchmark
+     *
+     * @param args
+     *            The corpus folder (by default 'bench' in the temporary
+     *            folder), and the size of the big file in MB (by
+     *            default 512)
+     */
+    public static void main(String[] args) throws IOException {
+        File folder = new File(args.length > 0 ? args[0] : new File(System.getProperty("java.io.tmpdir"), "bench").getPath());
+        long bigSize = (args.length > 1 ? Long.parseLong(args[1]) : 512) * 1024 * 1024;
+
+        // Creating the corpus
+        File[] big = { new File(folder, "big.bin") };
+        File[] small = new File[SMALL_FILES];
+
+        Random random = new Random(0);
+        create(big[0], bigSize, random);
+        for(int i = 0; i < SMALL_FILES; i++)
+            create(small[i] = new File(folder, "small/" + i + ".bin"), SMALL_SIZE, random);
+
+        System.out.println("Throughput, best of " + (RUNS - 1) + " runs after a warm-up, " + Runtime.getRuntime().availableProcessors() + " processors, Java " + System.getProperty("java.version"));
+        String header = String.format("%-24s %12s %14s", "", big[0].length() / (1024 * 1024) + " MB file", SMALL_FILES + " x " + SMALL_SIZE / 1024 + " KB");
+
+        // The ways to read the files, with MD5
+        System.out.println();
+        System.out.println(header);
+
+        for(int way = 0; way < WAYS.length; way++)
+            System.out.printf("%-24s %7.0f MB/s %9.0f MB/s%n", WAYS[way], measure(big, way, CHECK_METHODS[0]), measure(small, way, CHECK_METHODS[0]));
+
+        // The check methods, with the FileHasher
+        System.out.println();
+        System.out.println(header);
+
+        for(HashCheckMethod checkMethod : CHECK_METHODS)
+            System.out.printf("%-24s %7.0f MB/s %9.0f MB/s%n", checkMethod.getName(), measure(big, FILE_HASHER, checkMethod), measure(small, FILE_HASHER, checkMethod));
+    }
+
+    /**
+     * Creates a file of random bytes, if it doesn't exist with this size
+     *
+     * @param file
+     *            The file to create
+     * @param size
+     *            Its size
+     * @param random
+     *            The random bytes generator
+     */
+    private static void create(File file, long size, Random random) throws IOException {
+        if(file.length() == size)
+            return;
+
+        file.getParentFile().mkdirs();
+
+        OutputStream output = new FileOutputStream(file);
+        byte[] buffer = new byte[(int) Math.min(size, 1024 * 1024)];
+
+        try {
+            for(long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                output.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Measures the throughput of a way to hash files
+     *
+     * @param files
+     *            The files to hash
+     * @param way
+     *            The index of the way
+     * @param checkMethod
+     *            The check method creating the digests
+     * @return The best throughput (in MB per second)
+     */
+    private static double measure(File[] files, int way, HashCheckMethod checkMethod) throws IOException {
+        long total = 0;
+        for(File file : files)
+            total += file.length();
+
+        double best = 0;
+
+        for(int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+
+            for(File file : files) {
+                MessageDigest digest = checkMethod.createDigest();
+                hash(file, way, digest);
+                digest.digest();
+            }
+
+            double throughput = total / (1024 * 1024D) / ((System.nanoTime() - start) / 1000000000D);
+
+            // The first run is the warm-up
+            if(run > 0)
+                best = Math.max(best, throughput);
+        }
+
+        return best;
+    }
+
+    /**
+     * Hashes a file with a way
+     *
+     * @param file
+     *            The file to hash
+     * @param way
+     *            The index of the way
+     * @param digest
+     *            The digest to update
+     */
+    private static void hash(File file, int way, MessageDigest digest) throws IOException {
+        if(way == FILE_HASHER) {
+            FileHasher.update(digest, file);
+            return;
+        }
+
+        FileInputStream input = new FileInputStream(file);
+
+        try {
+            if(way == 0 || way == 1) {
+                // Reading a stream, like before the FileHasher
+                byte[] buffer = new byte[way == 0 ? 1024 : 64 * 1024];
+                int read;
+
+                while((read = input.read(buffer)) != -1)
+                    digest.update(buffer, 0, read);
+            } else if(way == 2) {
+                // Reading the channel in a direct buffer
+                FileChannel channel = input.getChannel();
+                DIRECT.clear();
+
+                while(channel.read(DIRECT) != -1) {
+                    DIRECT.flip();
+                    digest.update(DIRECT);
+                    DIRECT.clear();
+                }
+            } else {
+                // Mapping the file region by region
+                FileChannel channel = input.getChannel();
+                long size = channel.size();
+
+                for(long position = 0; position < size; position += FileHasher.MAP_REGION_SIZE)
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(FileHasher.MAP_REGION_SIZE, size - position)));
+            }
+        } finally {
+            close(input);
+        }
+    }
+
+    /**
+     * Closes a stream, ignoring the errors
+     *
+     * @param input
+     *            The stream to close
+     */
+    private static void close(InputStream input) {
+        try {
+            input.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+}